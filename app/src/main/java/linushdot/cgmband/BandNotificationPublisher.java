@@ -0,0 +1,83 @@
+package linushdot.cgmband;
+
+import android.app.NotificationManager;
+import android.content.Context;
+
+import androidx.core.app.NotificationCompat;
+
+/***
+ * Posts the notification for the band.
+ *
+ * A single builder is reused and the notification is updated in place under one ID. Posting is
+ * skipped if the text equals the one currently displayed, the notification is only cancelled if it
+ * is suppressed while displayed. Every post or cancel means a transfer to the band, so redundant
+ * ones are avoided. The notification can have a fixed title, e.g. to tell several sources apart.
+ *
+ * Not thread-safe, used from the thread handling the notifications.
+ */
+public class BandNotificationPublisher {
+
+    private final NotificationManager notificationManager;
+
+    private final NotificationCompat.Builder builder;
+
+    private final int id;
+
+    // text currently displayed, null if none
+    private String displayed;
+
+    /***
+     * Creates a new publisher
+     * @param context context for posting notifications
+     * @param channelId notification channel
+     * @param id notification ID
+     * @param title title of the notification, null for none
+     */
+    public BandNotificationPublisher(Context context, String channelId, int id, String title) {
+        this.notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+        this.builder = new NotificationCompat.Builder(context, channelId)
+                .setSmallIcon(R.mipmap.ic_launcher);
+        if(title != null) {
+            builder.setContentTitle(title);
+        }
+        this.id = id;
+    }
+
+    /***
+     * Displays a text, unless it is already displayed.
+     * @param text notification text
+     * @return true if the notification was posted
+     */
+    public boolean publish(String text) {
+        if(text.equals(displayed)) {
+            return false;
+        }
+        builder.setContentText(text)
+                .setWhen(System.currentTimeMillis());
+        notificationManager.notify(id, builder.build());
+        displayed = text;
+        return true;
+    }
+
+    /***
+     * Removes the notification if it is displayed.
+     */
+    public void suppress() {
+        if(displayed == null) {
+            return;
+        }
+        notificationManager.cancel(id);
+        displayed = null;
+    }
+
+    /***
+     * Marks the notification as no longer displayed, e.g. after the user dismissed it.
+     */
+    public void removed() {
+        displayed = null;
+    }
+
+    public int getId() {
+        return id;
+    }
+}
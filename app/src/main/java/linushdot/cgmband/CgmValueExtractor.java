@@ -2,12 +2,21 @@ package linushdot.cgmband;
 
 import android.service.notification.StatusBarNotification;
 
+import java.util.Collection;
+
 /***
  * Value extractors match certain notifications and extract CGM values (value, unit and time) from
  * notifications.
+ *
+ * Extractors are registered in the {@link ExtractorRegistry} for the packages they support.
  */
 public interface CgmValueExtractor {
 
+    /***
+     * @return package names of the apps whose notifications this extractor supports
+     */
+    Collection<String> getPackageNames();
+
     /***
      * Check if notification matches this extractor, i.e. is a notification from the CGM this
      * extractor supports.
@@ -0,0 +1,160 @@
+package linushdot.cgmband;
+
+import android.app.Notification;
+import android.os.Bundle;
+import android.service.notification.StatusBarNotification;
+import android.widget.RemoteViews;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/***
+ * Bounded cache of extraction results by notification fingerprint.
+ *
+ * The fingerprint consists of the key, {@link Notification#when}, the post time, the layout of the
+ * content view and a hash of the text extras (title, text and big text). It is read from fields of
+ * the notification only, so a lookup costs one hash lookup and no reflection. The post time has to
+ * be part of it: some apps (e.g. Dexcom G6) show the value only in the actions of the content view,
+ * which are not read before extraction, so a repost with the same when, layout and extras may
+ * carry a new value. Repeated deliveries of the same post (e.g. all active notifications read on
+ * request) are not extracted again.
+ *
+ * Failed extractions are cached as well (negative entries), notifications that do not contain a
+ * value are skipped until they are posted again.
+ *
+ * Only the newest fingerprint is kept per key, the least recently used keys are evicted when the
+ * cache is full. Not thread-safe.
+ */
+public class ExtractionCache {
+
+    private static final String[] TEXT_KEYS = {
+            Notification.EXTRA_TITLE, Notification.EXTRA_TEXT, Notification.EXTRA_BIG_TEXT};
+
+    /***
+     * Cached extraction result.
+     */
+    public static final class Entry {
+
+        private long when;
+
+        private long postTime;
+
+        private int layoutId;
+
+        private int textHash;
+
+        private CgmValue value;
+
+        /***
+         * @return extracted value, null for a notification without value
+         */
+        public CgmValue getValue() {
+            return value;
+        }
+
+        private boolean matches(long when, long postTime, int layoutId, int textHash) {
+            return this.when == when && this.postTime == postTime && this.layoutId == layoutId &&
+                    this.textHash == textHash;
+        }
+    }
+
+    private final LinkedHashMap<String, Entry> entries;
+
+    /***
+     * Creates a new cache
+     * @param capacity maximum number of cached notification keys
+     */
+    public ExtractionCache(final int capacity) {
+        this.entries = new LinkedHashMap<String, Entry>(capacity * 4 / 3 + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ExtractionCache.Entry> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /***
+     * Looks up the result of a previous extraction of the same notification
+     * @param sbn status bar notification
+     * @return cached entry, null if the notification was not extracted before
+     */
+    public Entry get(StatusBarNotification sbn) {
+        final Notification notification = sbn.getNotification();
+        return get(sbn.getKey(), notification.when, sbn.getPostTime(), getLayoutId(notification),
+                getTextHash(notification));
+    }
+
+    /***
+     * Looks up the result of a previous extraction by the parts of the fingerprint
+     * @return cached entry, null if no notification with this fingerprint was extracted before
+     */
+    Entry get(String key, long when, long postTime, int layoutId, int textHash) {
+        final Entry entry = entries.get(key);
+        if(entry == null || !entry.matches(when, postTime, layoutId, textHash)) {
+            return null;
+        }
+        return entry;
+    }
+
+    /***
+     * Stores the result of an extraction, replacing the entry of an older version of the notification
+     * @param sbn status bar notification
+     * @param value extracted value, null if the extraction failed
+     */
+    public void put(StatusBarNotification sbn, CgmValue value) {
+        final Notification notification = sbn.getNotification();
+        put(sbn.getKey(), notification.when, sbn.getPostTime(), getLayoutId(notification),
+                getTextHash(notification), value);
+    }
+
+    /***
+     * Stores the result of an extraction by the parts of the fingerprint
+     */
+    void put(String key, long when, long postTime, int layoutId, int textHash, CgmValue value) {
+        Entry entry = entries.get(key);
+        if(entry == null) {
+            entry = new Entry();
+            entries.put(key, entry);
+        }
+        entry.when = when;
+        entry.postTime = postTime;
+        entry.layoutId = layoutId;
+        entry.textHash = textHash;
+        entry.value = value;
+    }
+
+    /***
+     * Removes all entries.
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    private static int getLayoutId(Notification notification) {
+        RemoteViews views = notification.bigContentView;
+        if(views == null) views = notification.contentView;
+        return views != null ? views.getLayoutId() : 0;
+    }
+
+    /***
+     * @return hash of the text extras, computed over the characters without converting them to
+     * strings
+     */
+    private static int getTextHash(Notification notification) {
+        final Bundle extras = notification.extras;
+        if(extras == null) {
+            return 0;
+        }
+        int hash = 0;
+        for(String key : TEXT_KEYS) {
+            final CharSequence text = extras.getCharSequence(key);
+            hash = hash * 31 + (text != null ? text.length() : -1);
+            if(text != null) {
+                for(int i = 0; i < text.length(); i++) {
+                    hash = hash * 31 + text.charAt(i);
+                }
+            }
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,43 @@
+package linushdot.cgmband;
+
+import android.service.notification.StatusBarNotification;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/***
+ * Registry of the value extractors by package name.
+ *
+ * The notification listener receives every notification on the device, so notifications of other
+ * apps are rejected with a single hash lookup of their package name before any extractor is asked.
+ */
+public class ExtractorRegistry {
+
+    private final Map<String, CgmValueExtractor> extractors = new HashMap<>();
+
+    /***
+     * Registers an extractor for all of its packages, replacing extractors registered before for
+     * the same packages.
+     * @param extractor extractor to register
+     * @return this registry
+     */
+    public ExtractorRegistry register(CgmValueExtractor extractor) {
+        for(String packageName : extractor.getPackageNames()) {
+            extractors.put(packageName, extractor);
+        }
+        return this;
+    }
+
+    /***
+     * Finds the extractor for a notification
+     * @param sbn status bar notification
+     * @return the matching extractor, null if there is none
+     */
+    public CgmValueExtractor find(StatusBarNotification sbn) {
+        final CgmValueExtractor extractor = extractors.get(sbn.getPackageName());
+        if(extractor == null || !extractor.match(sbn)) {
+            return null;
+        }
+        return extractor;
+    }
+}
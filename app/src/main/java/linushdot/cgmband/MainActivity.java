@@ -1,25 +1,46 @@
 package linushdot.cgmband;
 
-import android.app.TimePickerDialog;
 import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.SharedPreferences;
+import android.net.Uri;
 import android.os.Bundle;
+import android.text.InputType;
 import android.view.View;
+import android.widget.EditText;
 import android.widget.TextView;
-import android.widget.TimePicker;
+import android.widget.Toast;
 
 import androidx.annotation.Nullable;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.NotificationManagerCompat;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import linushdot.cgmband.chart.ChartCache;
+import linushdot.cgmband.chart.HistoryChartView;
+import linushdot.cgmband.chart.LttbSeries;
+import linushdot.cgmband.delivery.DeliveryScheduler;
+import linushdot.cgmband.filters.PreferencesScheduleSource;
 import linushdot.cgmband.filters.TimeOfDayFilter;
+import linushdot.cgmband.filters.TimeOfDaySchedule;
+import linushdot.cgmband.history.HistoryArchive;
+import linushdot.cgmband.history.HistoryStore;
+import linushdot.cgmband.metrics.PipelineMetrics;
+import linushdot.cgmband.pipeline.DefaultStageFactory;
+import linushdot.cgmband.pipeline.Pipeline;
+import linushdot.cgmband.processors.MessageTemplate;
+import linushdot.cgmband.processors.RelativeDeltaProcessor;
+import linushdot.cgmband.stats.GlucoseStatistics;
 
 /***
  * Main activity with the following features:
@@ -29,18 +50,71 @@ import linushdot.cgmband.filters.TimeOfDayFilter;
  *
  * Get value: a second button lets the user request the first value to be extracted and displayed
  *
- * Set time of day: set the start and end time of the {@link TimeOfDayFilter}
+ * Set time of day: set the windows of the {@link TimeOfDayFilter} in which notifications are
+ * displayed, several per day and across midnight (see {@link TimeOfDaySchedule#parse(String)}), they
+ * are checked before they are saved
+ *
+ * Set message template: set the {@link MessageTemplate} of the relative delta notifications, it is
+ * checked before it is saved
+ *
+ * Set delivery window: set the coalescing window of routine notifications of the
+ * {@link DeliveryScheduler}
+ *
+ * Set rules: set the processors and filters of the {@link Pipeline}, the rules are compiled before
+ * they are saved
+ *
+ * Chart: the history of the last day, 7 or 90 days, downsampled in the {@link ChartCache} of the
+ * history
+ *
+ * Statistics: time in range, mean, GMI and CV of the current day, 14 and 90 days from the
+ * {@link GlucoseStatistics} of the history
+ *
+ * The chart and the statistics are loaded on one background thread. The history is acquired on it
+ * while the activity is started, so it is opened and seeded once and not for every new value.
+ *
+ * Export history: the history is written as compressed {@link HistoryArchive} to a document chosen
+ * by the user
+ *
+ * Metrics: the token buckets of the {@link DeliveryScheduler} of each source and the
+ * {@link PipelineMetrics} of the notification listener are displayed, the metrics can be exported
+ * as text dump
  */
 public class MainActivity extends AppCompatActivity {
 
+    private static final int REQUEST_EXPORT_HISTORY = 1;
+
     private BroadcastReceiver receiver;
 
     private TextView text;
 
     private TextView timeOfDay;
 
+    private TextView messageTemplate;
+
+    private TextView deliveryWindow;
+
+    private TextView rules;
+
+    private TextView metrics;
+
+    private TextView statistics;
+
+    private HistoryChartView chart;
+
+    // zoom level of the chart, see ChartCache
+    private int chartLevel = ChartCache.DAY;
+
     private SharedPreferences prefs;
 
+    // loads the chart and statistics and exports the history in order of the requests
+    private ExecutorService loader;
+
+    // accessed on the loader thread only
+    private boolean historyAcquired;
+
+    // true while an export is running, accessed on the UI thread only
+    private boolean exporting;
+
     @Override
     public void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -51,18 +125,69 @@ public class MainActivity extends AppCompatActivity {
 
         text = findViewById(R.id.text);
         timeOfDay = findViewById(R.id.timeOfDay);
+        messageTemplate = findViewById(R.id.messageTemplate);
+        deliveryWindow = findViewById(R.id.deliveryWindow);
+        rules = findViewById(R.id.rules);
+        metrics = findViewById(R.id.metrics);
+        statistics = findViewById(R.id.statistics);
+        chart = findViewById(R.id.chart);
+
+        loader = Executors.newSingleThreadExecutor();
 
         receiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
-                final CgmValue value = (CgmValue) intent.getSerializableExtra(NotificationListener.EXTRA_VALUE);
+                final CgmValue value = ValueBroadcaster.getValue(intent);
+                if(value == null) {
+                    return;
+                }
                 final Date postTime = new Date(value.getTime());
                 text.setText(String.format(Locale.getDefault(), "%.2f %s @%s",
                         value.getValue(), value.getUnit(),
                         new SimpleDateFormat("HH:mm", Locale.getDefault()).format(postTime)));
+                loadMetrics();
+                loadStatistics();
+                loadChart();
             }
         };
-        registerReceiver(receiver, new IntentFilter(NotificationListener.ACTION_RESPONSE));
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        ValueBroadcaster.register(this, receiver);
+        loader.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    SharedHistory.acquire(MainActivity.this);
+                    historyAcquired = true;
+                } catch(IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        ValueBroadcaster.unregister(this, receiver);
+        loader.execute(new Runnable() {
+            @Override
+            public void run() {
+                if(historyAcquired) {
+                    SharedHistory.release();
+                    historyAcquired = false;
+                }
+            }
+        });
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        loader.shutdown();
     }
 
     @Override
@@ -70,6 +195,9 @@ public class MainActivity extends AppCompatActivity {
         super.onResume();
 
         loadPrefs();
+        loadMetrics();
+        loadStatistics();
+        loadChart();
 
         // disable button if notification access already given
         boolean notificationAccess = false;
@@ -83,26 +211,99 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void loadPrefs() {
-        final int startHour = prefs.getInt(TimeOfDayFilter.KEY_FILTER_START_HOUR, 0);
-        final int startMinute = prefs.getInt(TimeOfDayFilter.KEY_FILTER_START_MINUTE, 0);
-        final int endHour = prefs.getInt(TimeOfDayFilter.KEY_FILTER_END_HOUR, 0);
-        final int endMinute = prefs.getInt(TimeOfDayFilter.KEY_FILTER_END_MINUTE, 0);
+        final TimeOfDaySchedule schedule = PreferencesScheduleSource.getInstance(prefs).getSchedule();
+        timeOfDay.setText(schedule.isEmpty() ? "Notifications at any time" : schedule.getDescription());
+        messageTemplate.setText(getMessageTemplate());
+        deliveryWindow.setText("Routine notifications at most every " + getDeliveryWindow() + " min");
+        rules.setText(getRules());
+    }
 
-        if(startHour == 0 && startMinute == 0 && endHour == 0 && endMinute == 0) {
-            return;
-        }
+    private String getRules() {
+        return prefs.getString(Pipeline.KEY_RULES, Pipeline.DEFAULT_CONFIG);
+    }
 
-        timeOfDay.setText(String.format(Locale.getDefault(),
-                "%02d:%02d - %02d:%02d",
-                startHour, startMinute, endHour, endMinute));
+    private String getMessageTemplate() {
+        final String template = prefs.getString(RelativeDeltaProcessor.KEY_MESSAGE_TEMPLATE, null);
+        return template != null && !template.isEmpty() ? template : MessageTemplate.DEFAULT;
     }
 
-    @Override
-    protected void onDestroy() {
-        super.onDestroy();
-        if(receiver != null) {
-            unregisterReceiver(receiver);
+    private int getDeliveryWindow() {
+        return prefs.getInt(DeliveryScheduler.KEY_DELIVERY_WINDOW, DeliveryScheduler.DEFAULT_WINDOW_MINS);
+    }
+
+    private void loadMetrics() {
+        final StringBuilder sb = new StringBuilder();
+        NotificationListener.appendDeliverySummary(sb);
+        sb.append(PipelineMetrics.getInstance().getSummary());
+        metrics.setText(sb);
+    }
+
+    /***
+     * Reads the statistics of the acquired history on the loader thread
+     */
+    private void loadStatistics() {
+        loader.execute(new Runnable() {
+            @Override
+            public void run() {
+                final StringBuilder sb = new StringBuilder();
+                if(historyAcquired) {
+                    final GlucoseStatistics stats = SharedHistory.getStatistics();
+                    for(int days : GlucoseStatistics.WINDOWS) {
+                        appendSummary(sb, stats.getSummary(days));
+                    }
+                } else {
+                    sb.append("History not available");
+                }
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        statistics.setText(sb);
+                    }
+                });
+            }
+        });
+    }
+
+    /***
+     * Reads the series of the current zoom level of the acquired history on the loader thread. The
+     * series is already downsampled, only drawing it is left to the UI thread.
+     */
+    private void loadChart() {
+        final int level = chartLevel;
+        loader.execute(new Runnable() {
+            @Override
+            public void run() {
+                if(!historyAcquired) {
+                    return;
+                }
+                final ChartCache charts = SharedHistory.getCharts();
+                final LttbSeries series = charts.getLevel(level);
+                final long to = System.currentTimeMillis();
+                final long from = to - series.getSpan();
+                final LttbSeries.Snapshot snapshot = series.snapshot(from);
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if(level == chartLevel) {
+                            chart.setSeries(snapshot, from, to);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private static void appendSummary(StringBuilder sb, GlucoseStatistics.Summary summary) {
+        sb.append(String.format(Locale.getDefault(), "%3dd ", summary.getDays()));
+        if(summary.getCount() == 0) {
+            sb.append("no readings\n");
+            return;
         }
+        sb.append(String.format(Locale.getDefault(),
+                "TIR %.0f%% <70 %.0f%% >180 %.0f%% mean %.0f GMI %.1f%% CV %.0f%%\n",
+                summary.getTimeInRange() * 100, summary.getTimeBelowRange() * 100,
+                summary.getTimeAboveRange() * 100, summary.getMean(), summary.getGmi(),
+                summary.getCoefficientOfVariation() * 100));
     }
 
     public void buttonClicked(View v) {
@@ -115,31 +316,251 @@ public class MainActivity extends AppCompatActivity {
             case R.id.get:
                 // request notification listener to read first value from CGM notification
                 final Intent i = new Intent(NotificationListener.ACTION_REQUEST);
+                i.setPackage(getPackageName());
                 i.putExtra(NotificationListener.EXTRA_COMMAND, NotificationListener.COMMAND_GET);
                 sendBroadcast(i);
                 break;
+            case R.id.chartDay:
+                chartLevel = ChartCache.DAY;
+                loadChart();
+                break;
+            case R.id.chartWeek:
+                chartLevel = ChartCache.WEEK;
+                loadChart();
+                break;
+            case R.id.chartQuarter:
+                chartLevel = ChartCache.QUARTER;
+                loadChart();
+                break;
+            case R.id.exportHistory:
+                if(exporting) {
+                    break;
+                }
+                // let the user choose where to save the archive
+                final Intent create = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+                create.addCategory(Intent.CATEGORY_OPENABLE);
+                create.setType("application/octet-stream");
+                create.putExtra(Intent.EXTRA_TITLE, "cgmband-" +
+                        new SimpleDateFormat("yyyyMMdd", Locale.ROOT).format(new Date()) + ".cgmz");
+                startActivityForResult(create, REQUEST_EXPORT_HISTORY);
+                break;
+            case R.id.exportMetrics:
+                // share metrics dump as text
+                final Intent send = new Intent(Intent.ACTION_SEND);
+                send.setType("text/plain");
+                send.putExtra(Intent.EXTRA_SUBJECT, "cgmband metrics");
+                send.putExtra(Intent.EXTRA_TEXT, PipelineMetrics.getInstance().dump());
+                startActivity(Intent.createChooser(send, null));
+                loadMetrics();
+                break;
             case R.id.setTimeOfDay:
-                // set start/end time values for when notifications should be deactivated
-                new TimePickerDialog(this, new TimePickerDialog.OnTimeSetListener() {
-                    @Override
-                    public void onTimeSet(TimePicker view, int hourOfDay, int minute) {
-                        final int startHourPicked = hourOfDay;
-                        final int startMinutePicked = minute;
-                        new TimePickerDialog(MainActivity.this, new TimePickerDialog.OnTimeSetListener() {
+                // windows in which notifications are displayed, the legacy single window is
+                // replaced by the list
+                showSettingDialog("Time of day",
+                        "Windows in which notifications are displayed, separated by \";\", e.g.\n" +
+                                "mon-fri 07:00-22:00; sat,sun 09:00-01:00\n" +
+                                "Empty for any time",
+                        PreferencesScheduleSource.getInstance(prefs).getSchedule().getDescription(),
+                        InputType.TYPE_CLASS_TEXT,
+                        new SettingSaver() {
                             @Override
-                            public void onTimeSet(TimePicker view, int hourOfDay, int minute) {
+                            public void save(SharedPreferences.Editor editor, String text) {
+                                TimeOfDaySchedule.parse(text);
+                                editor.putString(TimeOfDayFilter.KEY_FILTER_WINDOWS, text.trim())
+                                        .remove(TimeOfDayFilter.KEY_FILTER_START_HOUR)
+                                        .remove(TimeOfDayFilter.KEY_FILTER_START_MINUTE)
+                                        .remove(TimeOfDayFilter.KEY_FILTER_END_HOUR)
+                                        .remove(TimeOfDayFilter.KEY_FILTER_END_MINUTE);
+                            }
+                        }, TimeOfDayFilter.KEY_FILTER_WINDOWS,
+                        TimeOfDayFilter.KEY_FILTER_START_HOUR, TimeOfDayFilter.KEY_FILTER_START_MINUTE,
+                        TimeOfDayFilter.KEY_FILTER_END_HOUR, TimeOfDayFilter.KEY_FILTER_END_MINUTE);
+                break;
+            case R.id.setMessageTemplate:
+                // edit the template, placeholders are listed in MessageTemplate
+                final EditText input = new EditText(this);
+                input.setSingleLine(false);
+                input.setMinLines(2);
+                input.setText(getMessageTemplate());
+                new AlertDialog.Builder(this)
+                        .setTitle("Message template")
+                        .setMessage("{value} {unit} {sign} {delta} {minutes} {arrow}, [...] only with a previous value")
+                        .setView(input)
+                        .setPositiveButton("Save", new DialogInterface.OnClickListener() {
+                            @Override
+                            public void onClick(DialogInterface dialog, int which) {
+                                final String template = input.getText().toString();
+                                try {
+                                    MessageTemplate.compile(template);
+                                } catch(IllegalArgumentException e) {
+                                    Toast.makeText(MainActivity.this, "Invalid template: " + e.getMessage(),
+                                            Toast.LENGTH_LONG).show();
+                                    return;
+                                }
                                 prefs.edit()
-                                        .putInt(TimeOfDayFilter.KEY_FILTER_START_HOUR, startHourPicked)
-                                        .putInt(TimeOfDayFilter.KEY_FILTER_START_MINUTE, startMinutePicked)
-                                        .putInt(TimeOfDayFilter.KEY_FILTER_END_HOUR, hourOfDay)
-                                        .putInt(TimeOfDayFilter.KEY_FILTER_END_MINUTE, minute)
+                                        .putString(RelativeDeltaProcessor.KEY_MESSAGE_TEMPLATE, template)
                                         .apply();
                                 loadPrefs();
                             }
-                        }, 0, 0, true).show();
-                    }
-                }, 0, 0, true).show();
+                        })
+                        .setNeutralButton("Default", new DialogInterface.OnClickListener() {
+                            @Override
+                            public void onClick(DialogInterface dialog, int which) {
+                                prefs.edit().remove(RelativeDeltaProcessor.KEY_MESSAGE_TEMPLATE).apply();
+                                loadPrefs();
+                            }
+                        })
+                        .setNegativeButton("Cancel", null)
+                        .show();
+                break;
+            case R.id.setDeliveryWindow:
+                // minutes between routine notifications, alerts are not delayed
+                showSettingDialog("Delivery window",
+                        "Minutes between routine notifications (0 to " +
+                                DeliveryScheduler.MAX_WINDOW_MINS + ")",
+                        Integer.toString(getDeliveryWindow()), InputType.TYPE_CLASS_NUMBER,
+                        new SettingSaver() {
+                            @Override
+                            public void save(SharedPreferences.Editor editor, String text) {
+                                final int window = Integer.parseInt(text.trim());
+                                if(window < 0 || window > DeliveryScheduler.MAX_WINDOW_MINS) {
+                                    throw new IllegalArgumentException("out of range");
+                                }
+                                editor.putInt(DeliveryScheduler.KEY_DELIVERY_WINDOW, window);
+                            }
+                        }, DeliveryScheduler.KEY_DELIVERY_WINDOW);
+                break;
+            case R.id.setRules:
+                // one rule per line: processor followed by its filters, see Pipeline
+                showSettingDialog("Rules",
+                        "One rule per line: processor[:args] > filter\n" +
+                                "Processors: relative_delta, trend, predictive_alert\n" +
+                                "Filters: time_of_day",
+                        getRules(), InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_FLAG_MULTI_LINE,
+                        new SettingSaver() {
+                            @Override
+                            public void save(SharedPreferences.Editor editor, String text) {
+                                // compiled with throwaway stages, only to check the rules
+                                Pipeline.compile(text, new DefaultStageFactory(new ReadingBuffer(1),
+                                        PreferencesScheduleSource.getInstance(prefs), Clock.SYSTEM), null);
+                                editor.putString(Pipeline.KEY_RULES, text.trim());
+                            }
+                        }, Pipeline.KEY_RULES);
                 break;
         }
     }
-}
\ No newline at end of file
+
+    /***
+     * Checks and stores the text entered in a setting dialog.
+     */
+    private interface SettingSaver {
+
+        /***
+         * @param editor editor to store the setting with
+         * @param text entered text
+         * @throws IllegalArgumentException if the text is not valid
+         */
+        void save(SharedPreferences.Editor editor, String text);
+
+    }
+
+    /***
+     * Shows a dialog for editing a setting as text. The text is checked when it is saved, an
+     * invalid text is not stored and the error is displayed. "Default" removes the keys of the
+     * setting.
+     * @param title title of the dialog
+     * @param message explanation of the format
+     * @param text current value
+     * @param inputType input type of the text field
+     * @param saver checks and stores the entered text
+     * @param keys preference keys of the setting
+     */
+    private void showSettingDialog(final String title, String message, String text, int inputType,
+                                   final SettingSaver saver, final String... keys) {
+        final EditText input = new EditText(this);
+        input.setInputType(inputType);
+        input.setText(text);
+        new AlertDialog.Builder(this)
+                .setTitle(title)
+                .setMessage(message)
+                .setView(input)
+                .setPositiveButton("Save", new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        final SharedPreferences.Editor editor = prefs.edit();
+                        try {
+                            saver.save(editor, input.getText().toString());
+                        } catch(IllegalArgumentException e) {
+                            Toast.makeText(MainActivity.this, "Invalid " + title.toLowerCase(Locale.ROOT) +
+                                    ": " + e.getMessage(), Toast.LENGTH_LONG).show();
+                            return;
+                        }
+                        editor.apply();
+                        loadPrefs();
+                    }
+                })
+                .setNeutralButton("Default", new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        final SharedPreferences.Editor editor = prefs.edit();
+                        for(String key : keys) {
+                            editor.remove(key);
+                        }
+                        editor.apply();
+                        loadPrefs();
+                    }
+                })
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, @Nullable Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if(requestCode == REQUEST_EXPORT_HISTORY && resultCode == RESULT_OK && data != null &&
+                data.getData() != null) {
+            exportHistory(data.getData());
+        }
+    }
+
+    /***
+     * Writes the history as archive on the loader thread, nop while another export is running
+     * @param uri document to write to
+     */
+    private void exportHistory(final Uri uri) {
+        if(exporting) {
+            return;
+        }
+        exporting = true;
+        loader.execute(new Runnable() {
+            @Override
+            public void run() {
+                String message;
+                try {
+                    final HistoryStore history = SharedHistory.acquire(MainActivity.this);
+                    try {
+                        final OutputStream out = getContentResolver().openOutputStream(uri);
+                        if(out == null) {
+                            throw new IOException("Cannot open " + uri);
+                        }
+                        final int count = HistoryArchive.export(history, out);
+                        message = "Exported " + count + " readings";
+                    } finally {
+                        SharedHistory.release();
+                    }
+                } catch(IOException e) {
+                    e.printStackTrace();
+                    message = "Export failed: " + e.getMessage();
+                }
+                final String result = message;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        exporting = false;
+                        Toast.makeText(MainActivity.this, result, Toast.LENGTH_LONG).show();
+                    }
+                });
+            }
+        });
+    }
+}
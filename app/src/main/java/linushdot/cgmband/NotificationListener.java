@@ -6,17 +6,29 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
 import android.service.notification.NotificationListenerService;
 import android.service.notification.StatusBarNotification;
+import android.util.Log;
 
-import androidx.core.app.NotificationCompat;
-
-import java.util.Collections;
-import java.util.List;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
+import linushdot.cgmband.delivery.DeliveryScheduler;
 import linushdot.cgmband.dexcomg6.DexcomValueExtractor;
-import linushdot.cgmband.filters.TimeOfDayFilter;
-import linushdot.cgmband.processors.RelativeDeltaProcessor;
+import linushdot.cgmband.filters.PreferencesScheduleSource;
+import linushdot.cgmband.generic.TextValueExtractor;
+import linushdot.cgmband.history.HistoryStore;
+import linushdot.cgmband.metrics.PipelineMetrics;
+import linushdot.cgmband.pipeline.Pipeline;
+import linushdot.cgmband.processors.PreferencesTemplateSource;
+import linushdot.cgmband.provider.HistoryContract;
+import linushdot.cgmband.provider.HistoryProvider;
 
 /***
  * Service for receiving posted notifications, extracting and processing them.
@@ -26,16 +38,42 @@ import linushdot.cgmband.processors.RelativeDeltaProcessor;
  * with the "linushdot.cgmband.NOTIFICATION_REQUEST" action and a "command" extra with the value
  * "get".
  *
- * The notifications run through an extractor, then the processor and finally filters can keep
- * notifications from being displayed under certain conditions.
+ * The notifications run through an extractor, then the processors and finally filters can keep
+ * notifications from being displayed under certain conditions. Matching notifications are handled
+ * on a background {@link NotificationWorker}, which coalesces bursts of updates per notification key.
+ * Notifications that were already extracted are looked up in an {@link ExtractionCache} instead.
+ *
+ * Values are tagged with their source, the package name of the app they were read from with the ID
+ * and tag of its notification, so an app showing several sensors in separate notifications has a
+ * source per sensor and a reinstalled app continues the same sources. Each source has its own
+ * {@link SourcePipeline} with recent readings, processor and filter states, a
+ * {@link DeliveryScheduler} rate limiting its notifications for the band and its own band
+ * notification, labelled with the app name for all sources but the primary one. The processor
+ * states are saved in a {@link ProcessorStateStore} per source after each value and restored when
+ * the source is first seen. The routine and elevated deliveries of all sources together are capped
+ * by a shared {@link DeliveryScheduler.SharedLimit}, urgent alerts bypass it.
+ *
+ * Other sources get a slot from a persisted counter, which numbers their band notification and
+ * state file, so they keep both across restarts and never share them. A source without a value for
+ * {@link #SOURCE_TIMEOUT} is stopped, its state file deleted and its slot released.
+ *
+ * The primary source is the first one seen, it is replaced by another source if it had no reading
+ * for {@link #PRIMARY_TIMEOUT}. The new primary source moves to the unlabelled band notification and
+ * the primary state file, its slot is released. Only its readings are recorded in the {@link HistoryStore} and
+ * broadcast to the UI. Other apps can read the history through the {@link HistoryProvider}.
+ * Counters and latencies of all steps are recorded in {@link PipelineMetrics}.
  *
  * The current configuration is:
- * - Extractor: {@link DexcomValueExtractor}
- * - Processor: {@link RelativeDeltaProcessor}
- * - Filter: {@link NotificationFilter}
+ * - Extractors: {@link DexcomValueExtractor}, {@link TextValueExtractor}, looked up by package in
+ *   an {@link ExtractorRegistry}
+ * - Processors and filters: {@link Pipeline} compiled from the rules stored in the preferences
+ *   ({@link Pipeline#KEY_RULES}, {@link Pipeline#DEFAULT_CONFIG} if not set), recompiled when
+ *   the rules change
  */
 public class NotificationListener extends NotificationListenerService {
 
+    private static final String TAG = "NotificationListener";
+
     public static final String ACTION_REQUEST = "linushdot.cgmband.NOTIFICATION_REQUEST";
 
     public static final String EXTRA_COMMAND = "command";
@@ -43,35 +81,143 @@ public class NotificationListener extends NotificationListenerService {
 
     public static final String ACTION_RESPONSE = "linushdot.cgmband.NOTIFICATION_RESPONSE";
 
-    public static final String EXTRA_VALUE = "value";
-
     public static final int NOTIFICATION_ID = 10;
     public static final String NOTIFICATION_CHANNEL_ID = "values";
 
+    public static final String HISTORY_FILE = "history.bin";
+
+    // processor states of the primary source, other sources have a file per source
+    public static final String STATE_FILE = "processors.state";
+
+    public static final String KEY_PRIMARY_SOURCE = "primary_source";
+
+    public static final String KEY_NEXT_SOURCE_SLOT = "next_source_slot";
+
+    // slots of the sources other than the primary one, by source ID
+    public static final String SOURCE_SLOTS_PREFS = "source_slots";
+
+    // the primary source is replaced by another one after this time without readings
+    public static final long PRIMARY_TIMEOUT = 24 * 60 * 60 * 1000;
+
+    // other sources are stopped and their state deleted after this time without values
+    public static final long SOURCE_TIMEOUT = 24 * 60 * 60 * 1000;
+
+    private static final String STATE_FILE_PREFIX = "processors-";
+    private static final String STATE_FILE_SUFFIX = ".state";
+
+    private static final int WORKER_CAPACITY = 16;
+
+    private static final int CACHE_CAPACITY = 32;
+
+    // reposts of the same value within this interval are not recorded as new readings
+    private static final long MIN_READING_INTERVAL = 4 * 60 * 1000;
+
+    // 24 hours of 5 minute readings
+    private static final int RECENT_READINGS = 288;
+
+    // sources of the running service, for displaying their state
+    private static volatile Map<String, SourcePipeline> activeSources;
+
+    // caps the band wakeups of all sources together, kept across restarts of the service
+    private static final DeliveryScheduler.SharedLimit WAKEUPS =
+            new DeliveryScheduler.SharedLimit(Clock.SYSTEM);
+
     private BroadcastReceiver receiver;
 
-    private CgmValueExtractor extractor = new DexcomValueExtractor();
+    private final PipelineMetrics metrics = PipelineMetrics.getInstance();
+
+    private ExtractorRegistry extractors;
+
+    // accessed on the worker thread only
+    private final ExtractionCache cache = new ExtractionCache(CACHE_CAPACITY);
 
-    private CgmValueProcessor processor = new RelativeDeltaProcessor();
+    // created on the worker thread, read by the preferences listener and the UI
+    private final Map<String, SourcePipeline> sources = new ConcurrentHashMap<>();
 
-    private List<NotificationFilter> filters = null;
+    // accessed on the worker thread only
+    private String primarySource;
+
+    private SharedPreferences prefs;
+
+    private SharedPreferences slots;
+
+    // kept as field, preferences only hold weak references to listeners
+    private final SharedPreferences.OnSharedPreferenceChangeListener prefsListener =
+            new SharedPreferences.OnSharedPreferenceChangeListener() {
+        @Override
+        public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+            if(Pipeline.KEY_RULES.equals(key)) {
+                worker.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        final String config = getRules();
+                        for(SourcePipeline source : sources.values()) {
+                            source.compilePipeline(config);
+                        }
+                    }
+                });
+            } else if(DeliveryScheduler.KEY_DELIVERY_WINDOW.equals(key)) {
+                final int window = getDeliveryWindow();
+                for(SourcePipeline source : sources.values()) {
+                    source.getScheduler().setWindow(window);
+                }
+            }
+        }
+    };
+
+    private NotificationWorker worker;
+
+    // accessed on the worker thread only
+    private HistoryStore history;
 
     @Override
     public void onCreate() {
         super.onCreate();
 
-        filters = Collections.singletonList((NotificationFilter)
-                new TimeOfDayFilter(getApplicationContext().getSharedPreferences("prefs", 0)));
+        prefs = getApplicationContext().getSharedPreferences("prefs", 0);
+        slots = getApplicationContext().getSharedPreferences(SOURCE_SLOTS_PREFS, 0);
+        extractors = new ExtractorRegistry()
+                .register(new DexcomValueExtractor(this))
+                .register(new TextValueExtractor());
 
         createNotificationChannel();
+        activeSources = sources;
+
+        worker = new NotificationWorker(new NotificationWorker.Callback() {
+            @Override
+            public void handle(StatusBarNotification sbn) {
+                extractAndHandle(sbn);
+            }
+        }, WORKER_CAPACITY);
+        prefs.registerOnSharedPreferenceChangeListener(prefsListener);
+        worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                primarySource = prefs.getString(KEY_PRIMARY_SOURCE, null);
+                if(primarySource != null && primarySource.indexOf('|') >= 0) {
+                    // stored as notification key "user|package|id|tag|uid" by earlier versions
+                    setPrimarySource(primarySource.split("\\|")[1]);
+                }
+                releaseLegacySlots();
+                deleteOrphanedStates();
+                try {
+                    history = SharedHistory.acquire(NotificationListener.this);
+                } catch(IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
 
         receiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
                 if(intent.getStringExtra(EXTRA_COMMAND).equals(COMMAND_GET)) {
-                    for(StatusBarNotification sbn : NotificationListener.this.getActiveNotifications()) {
-                        extractAndHandle(sbn);
-                    }
+                    worker.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            handleActiveNotifications();
+                        }
+                    });
                 }
             }
         };
@@ -84,58 +230,438 @@ public class NotificationListener extends NotificationListenerService {
         if(receiver != null) {
             unregisterReceiver(receiver);
         }
+        if(prefs != null) {
+            prefs.unregisterOnSharedPreferenceChangeListener(prefsListener);
+        }
+        if(activeSources == sources) {
+            activeSources = null;
+        }
+        if(worker != null) {
+            worker.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for(SourcePipeline source : sources.values()) {
+                        source.close();
+                    }
+                    if(history != null) {
+                        SharedHistory.release();
+                        history = null;
+                    }
+                }
+            });
+            worker.quit();
+        }
     }
 
     @Override
     public void onNotificationPosted(StatusBarNotification sbn) {
         super.onNotificationPosted(sbn);
 
-        extractAndHandle(sbn);
+        metrics.increment(PipelineMetrics.CALLBACKS);
+        submit(sbn);
     }
 
     /**
-     * Extracts value and broadcasts it, then displays notification if the processor generates one.
+     * Queues a notification for extraction on the worker thread.
      *
-     * Only processes matching notifications, nop for others.
+     * Only matching notifications are queued, nop for others.
      *
      * @param sbn status bar notification received
      */
+    private void submit(StatusBarNotification sbn) {
+        if(extractors.find(sbn) != null) {
+            worker.submit(sbn);
+        } else {
+            metrics.increment(PipelineMetrics.NON_MATCHING);
+        }
+    }
+
+    /**
+     * Handles all active notifications on request. Values of the primary source that were already
+     * extracted are broadcast again from the cache, others are extracted and handled.
+     *
+     * Runs on the worker thread.
+     */
+    private void handleActiveNotifications() {
+        final StatusBarNotification[] active = getActiveNotifications();
+        if(active == null) {
+            return;
+        }
+        for(StatusBarNotification sbn : active) {
+            if(extractors.find(sbn) == null) {
+                continue;
+            }
+            final ExtractionCache.Entry cached = cache.get(sbn);
+            if(cached == null) {
+                extractAndHandle(sbn);
+            } else if(cached.getValue() != null) {
+                metrics.increment(PipelineMetrics.CACHE_HITS);
+                if(cached.getValue().getSource().equals(primarySource)) {
+                    ValueBroadcaster.broadcast(this, cached.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Extracts the value and tags it with its source, broadcasts it if it is from the primary
+     * source, then runs it through the pipeline of its source.
+     *
+     * Notifications that were already extracted are skipped.
+     *
+     * Runs on the worker thread.
+     *
+     * @param sbn matching status bar notification
+     */
     private void extractAndHandle(StatusBarNotification sbn) {
-        if(extractor.match(sbn)) {
-            final CgmValue value = extractor.extract(sbn);
-            if(value == null) {
-                return; // extraction failed
+        final CgmValueExtractor extractor = extractors.find(sbn);
+        if(extractor == null) {
+            return;
+        }
+        if(cache.get(sbn) != null) {
+            metrics.increment(PipelineMetrics.CACHE_HITS);
+            return;
+        }
+        metrics.delivery.record((System.currentTimeMillis() - sbn.getPostTime()) * 1000000);
+
+        final long extractStart = System.nanoTime();
+        final CgmValue extracted = extractor.extract(sbn);
+        metrics.extract.recordSince(extractStart);
+        final CgmValue value = extracted != null ? extracted.withSource(getSourceId(sbn)) : null;
+        cache.put(sbn, value);
+        if(value == null) {
+            metrics.increment(PipelineMetrics.EXTRACT_FAILED);
+            return; // extraction failed
+        }
+        metrics.increment(PipelineMetrics.EXTRACTED);
+
+        evictSources();
+        SourcePipeline source = getSource(sbn);
+        if(!source.getId().equals(primarySource) && history != null &&
+                (history.size() == 0 ||
+                        value.getTime() - history.getTime(history.size() - 1) > PRIMARY_TIMEOUT)) {
+            source = takeOver(source, sbn);
+        }
+        final boolean primary = record(source, value);
+
+        // broadcast value
+        if(primary) {
+            ValueBroadcaster.broadcast(this, value);
+        }
+
+        // process value, notify if necessary
+        source.process(value, sbn.getPostTime());
+    }
+
+    /**
+     * Returns the pipeline of the source of a notification, creating it when the source is first
+     * seen. The first source ever seen becomes the primary source, its readings are seeded from the
+     * history. A primary source stored by package name by earlier versions is continued by the
+     * first source of that package.
+     *
+     * Runs on the worker thread.
+     *
+     * @param sbn status bar notification of the source
+     * @return pipeline of the source
+     */
+    private SourcePipeline getSource(StatusBarNotification sbn) {
+        final String id = getSourceId(sbn);
+        final SourcePipeline source = sources.get(id);
+        if(source != null) {
+            return source;
+        }
+
+        if(primarySource == null || primarySource.equals(sbn.getPackageName())) {
+            setPrimarySource(id);
+        }
+        return createSource(id, sbn.getPackageName(), null);
+    }
+
+    /**
+     * Makes a source the primary one, when the history had no reading for
+     * {@link #PRIMARY_TIMEOUT}. The previous primary source is stopped and its state deleted. The
+     * source moves to the primary band notification and state file, keeping its processor states
+     * and recent readings, and its slot is released.
+     *
+     * Runs on the worker thread.
+     *
+     * @param source pipeline of a source other than the primary one
+     * @param sbn status bar notification of the source
+     * @return new pipeline of the source
+     */
+    private SourcePipeline takeOver(SourcePipeline source, StatusBarNotification sbn) {
+        final SourcePipeline previous = sources.remove(primarySource);
+        if(previous != null) {
+            previous.delete();
+        }
+        final File primaryState = new File(getFilesDir(), STATE_FILE);
+        if(primaryState.exists() && !primaryState.delete()) {
+            Log.w(TAG, "Could not delete " + STATE_FILE);
+        }
+
+        final String id = source.getId();
+        sources.remove(id);
+        source.close();
+        source.getPublisher().suppress();
+        final File state = new File(getFilesDir(), getStateFileName(slots.getInt(id, 0)));
+        if(state.exists() && !state.renameTo(primaryState)) {
+            Log.w(TAG, "Could not move " + state.getName());
+        }
+        slots.edit().remove(id).apply();
+
+        setPrimarySource(id);
+        return createSource(id, sbn.getPackageName(), source.getReadings());
+    }
+
+    /**
+     * Creates and registers the pipeline of a source. The readings of the primary source are
+     * seeded from the given recent readings, or from the history if there are none.
+     *
+     * Runs on the worker thread.
+     *
+     * @param id ID of the source
+     * @param packageName package of the source, for its label
+     * @param recent recent readings to continue, null for none
+     * @return pipeline of the source
+     */
+    private SourcePipeline createSource(String id, String packageName, ReadingBuffer recent) {
+        final boolean primary = id.equals(primarySource);
+        final int slot = primary ? 0 : getSlot(id);
+        final SourcePipeline source = new SourcePipeline(this, worker, id,
+                primary ? null : getLabel(packageName),
+                NOTIFICATION_ID + slot,
+                new File(getFilesDir(), primary ? STATE_FILE : getStateFileName(slot)),
+                RECENT_READINGS, PreferencesScheduleSource.getInstance(prefs),
+                PreferencesTemplateSource.getInstance(prefs), getDeliveryWindow(), WAKEUPS);
+
+        final ReadingBuffer readings = source.getReadings();
+        if(recent != null) {
+            for(int i = recent.size() - 1; i >= 0; i--) {
+                readings.add(recent.getTime(i), recent.getValue(i), recent.getUnit(i));
             }
+        } else if(primary && history != null) {
+            // seed recent readings from the history
+            final int size = history.size();
+            final long from = size > readings.capacity()
+                    ? history.getTime(size - readings.capacity()) : 0;
+            history.scan(from, Long.MAX_VALUE, new HistoryStore.Visitor() {
+                @Override
+                public void visit(long time, float value, int unit) {
+                    readings.add(time, value, CgmUnit.fromCode(unit));
+                }
+            });
+        }
+        source.compilePipeline(getRules());
+        sources.put(id, source);
+        return source;
+    }
 
-            // broadcast value
-            final Intent i = new Intent(ACTION_RESPONSE);
-            i.putExtra(EXTRA_VALUE, value);
-            sendBroadcast(i);
-
-            // process value, notify if necessary
-            final String notification = processor.process(value);
-            if(notification != null) {
-                NotificationManager notificationManager = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
-                notificationManager.cancelAll();
-
-                // check filters, display if no filter is positive
-                for(NotificationFilter filter : filters) {
-                    if(filter.filter(value, notification)) {
-                        return;
-                    }
+    /**
+     * @param sbn status bar notification of the source
+     * @return ID of the source: package name, notification ID and tag, if any, separated by '/'
+     */
+    private static String getSourceId(StatusBarNotification sbn) {
+        final String id = sbn.getPackageName() + '/' + sbn.getId();
+        return sbn.getTag() != null ? id + '/' + sbn.getTag() : id;
+    }
+
+    /**
+     * Returns the slot of a source other than the primary one, allocating the next one from the
+     * persisted counter when the source has none.
+     *
+     * @param id ID of the source
+     * @return slot of the source, starting at 1
+     */
+    private int getSlot(String id) {
+        int slot = slots.getInt(id, 0);
+        if(slot == 0) {
+            slot = prefs.getInt(KEY_NEXT_SOURCE_SLOT, 1);
+            prefs.edit().putInt(KEY_NEXT_SOURCE_SLOT, slot + 1).apply();
+            slots.edit().putInt(id, slot).apply();
+        }
+        return slot;
+    }
+
+    private static String getStateFileName(int slot) {
+        return STATE_FILE_PREFIX + slot + STATE_FILE_SUFFIX;
+    }
+
+    /**
+     * Stops the sources other than the primary one that had no value for {@link #SOURCE_TIMEOUT},
+     * deletes their state and releases their slot.
+     *
+     * Runs on the worker thread.
+     */
+    private void evictSources() {
+        final long now = System.currentTimeMillis();
+        for(SourcePipeline source : sources.values()) {
+            if(!source.getId().equals(primarySource) &&
+                    now - source.getLastTime() > SOURCE_TIMEOUT) {
+                sources.remove(source.getId());
+                source.delete();
+                slots.edit().remove(source.getId()).apply();
+            }
+        }
+    }
+
+    /**
+     * Releases the slots stored by package name by earlier versions, their state files are deleted
+     * as orphans.
+     *
+     * Runs on the worker thread.
+     */
+    private void releaseLegacySlots() {
+        final SharedPreferences.Editor editor = slots.edit();
+        for(String id : slots.getAll().keySet()) {
+            if(id.indexOf('/') < 0) {
+                editor.remove(id);
+            }
+        }
+        editor.apply();
+    }
+
+    /**
+     * Deletes the state files of sources without a slot, left by sources evicted while the service
+     * was not running or by earlier versions.
+     *
+     * Runs on the worker thread.
+     */
+    private void deleteOrphanedStates() {
+        final Set<String> used = new HashSet<>();
+        for(Object slot : slots.getAll().values()) {
+            used.add(getStateFileName((Integer) slot));
+        }
+        final File[] files = getFilesDir().listFiles();
+        if(files == null) {
+            return;
+        }
+        for(File file : files) {
+            final String name = file.getName();
+            if(name.startsWith(STATE_FILE_PREFIX) && name.endsWith(STATE_FILE_SUFFIX) &&
+                    !used.contains(name) && !file.delete()) {
+                Log.w(TAG, "Could not delete " + name);
+            }
+        }
+    }
+
+    /**
+     * @param packageName package of the source
+     * @return app name of the package, numbered if another source has the same label
+     */
+    private String getLabel(String packageName) {
+        String label;
+        try {
+            final PackageManager pm = getPackageManager();
+            label = pm.getApplicationLabel(pm.getApplicationInfo(packageName, 0)).toString();
+        } catch(PackageManager.NameNotFoundException e) {
+            label = packageName;
+        }
+
+        String candidate = label;
+        int n = 1;
+        boolean taken = true;
+        while(taken) {
+            taken = false;
+            for(SourcePipeline source : sources.values()) {
+                if(candidate.equals(source.getLabel())) {
+                    candidate = label + " " + (++n);
+                    taken = true;
+                    break;
                 }
+            }
+        }
+        return candidate;
+    }
+
+    private void setPrimarySource(String id) {
+        primarySource = id;
+        prefs.edit().putString(KEY_PRIMARY_SOURCE, id).apply();
+    }
+
+    private String getRules() {
+        return prefs.getString(Pipeline.KEY_RULES, Pipeline.DEFAULT_CONFIG);
+    }
+
+    private int getDeliveryWindow() {
+        return prefs.getInt(DeliveryScheduler.KEY_DELIVERY_WINDOW, DeliveryScheduler.DEFAULT_WINDOW_MINS);
+    }
 
-                NotificationCompat.Builder builder = new NotificationCompat.Builder(this, NOTIFICATION_CHANNEL_ID)
-                        .setSmallIcon(R.mipmap.ic_launcher)
-                        .setContentText(notification);
-                notificationManager.notify(NOTIFICATION_ID, builder.build());
+    /**
+     * Adds a value to the recent readings of its source, unless it is a repost of the last
+     * reading. Readings of the primary source are also recorded in the history.
+     *
+     * Runs on the worker thread.
+     *
+     * @param source pipeline of the source
+     * @param value extracted value
+     * @return true if the value is from the primary source
+     */
+    private boolean record(SourcePipeline source, CgmValue value) {
+        final boolean primary = source.getId().equals(primarySource);
+
+        final ReadingBuffer readings = source.getReadings();
+        if(readings.size() > 0 && value.getTime() - readings.getTime(0) < MIN_READING_INTERVAL &&
+                CgmReading.toFixed(value.getValue()) ==
+                        CgmReading.getFixedValue(readings.getReading(0))) {
+            return primary;
+        }
+        if(!readings.add(value.getTime(), value.getValue(), value.getUnitType())) {
+            return primary;
+        }
+        metrics.increment(PipelineMetrics.READINGS);
+        if(primary && history != null) {
+            try {
+                if(SharedHistory.append(value)) {
+                    // let observers of the history provider know about the new reading
+                    getContentResolver().notifyChange(HistoryContract.READINGS_URI, null);
+                }
+            } catch(IOException e) {
+                e.printStackTrace();
             }
         }
+        return primary;
     }
 
     @Override
     public void onNotificationRemoved(StatusBarNotification sbn) {
         super.onNotificationRemoved(sbn);
+
+        // own notification dismissed, it has to be posted again even if the text is unchanged
+        if(getPackageName().equals(sbn.getPackageName())) {
+            final int id = sbn.getId();
+            worker.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for(SourcePipeline source : sources.values()) {
+                        if(source.getPublisher().getId() == id) {
+                            source.getPublisher().removed();
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Appends the delivery state of each source of the running service, nop if it is not running.
+     *
+     * @param sb builder to append to
+     */
+    public static void appendDeliverySummary(StringBuilder sb) {
+        final Map<String, SourcePipeline> sources = activeSources;
+        if(sources == null) {
+            return;
+        }
+        for(SourcePipeline source : sources.values()) {
+            if(sources.size() > 1) {
+                sb.append('[').append(source.getLabel() != null ? source.getLabel() : "primary")
+                        .append("]\n");
+            }
+            source.getScheduler().appendSummary(sb);
+        }
+        if(sources.size() > 1) {
+            WAKEUPS.appendSummary(sb);
+        }
     }
 
     private void createNotificationChannel() {
@@ -0,0 +1,130 @@
+package linushdot.cgmband;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.service.notification.StatusBarNotification;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/***
+ * Background worker for handling notifications off the main thread.
+ *
+ * Submitted notifications are queued by their key ({@link StatusBarNotification#getKey()}). If a
+ * notification with the same key is still waiting, it is replaced, so only the newest update of a
+ * burst gets handled. The queue is bounded, when it is full the oldest waiting notification is
+ * dropped.
+ */
+public class NotificationWorker {
+
+    public interface Callback {
+
+        /***
+         * Handles a notification, called on the worker thread.
+         * @param sbn status bar notification
+         */
+        void handle(StatusBarNotification sbn);
+
+    }
+
+    private final Callback callback;
+
+    private final int capacity;
+
+    private final HandlerThread thread;
+
+    private final Handler handler;
+
+    // pending notifications by key, guarded by this
+    private final LinkedHashMap<String, StatusBarNotification> pending = new LinkedHashMap<>();
+
+    // true if the drain runnable is posted or running, guarded by this
+    private boolean scheduled = false;
+
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            while(true) {
+                final StatusBarNotification next;
+                synchronized(NotificationWorker.this) {
+                    final Iterator<StatusBarNotification> it = pending.values().iterator();
+                    if(!it.hasNext()) {
+                        scheduled = false;
+                        return;
+                    }
+                    next = it.next();
+                    it.remove();
+                }
+                callback.handle(next);
+            }
+        }
+    };
+
+    /***
+     * Creates and starts a new worker thread.
+     * @param callback callback handling the notifications
+     * @param capacity maximum number of pending notifications
+     */
+    public NotificationWorker(Callback callback, int capacity) {
+        this.callback = callback;
+        this.capacity = capacity;
+        this.thread = new HandlerThread("NotificationWorker", Process.THREAD_PRIORITY_BACKGROUND);
+        this.thread.start();
+        this.handler = new Handler(thread.getLooper());
+    }
+
+    /***
+     * Queues a notification, replacing a pending one with the same key.
+     * @param sbn status bar notification
+     */
+    public synchronized void submit(StatusBarNotification sbn) {
+        final String key = sbn.getKey();
+        if(pending.containsKey(key)) {
+            pending.put(key, sbn); // coalesce, keeps the queue position
+        } else {
+            if(pending.size() >= capacity) {
+                final Iterator<String> it = pending.keySet().iterator();
+                it.next();
+                it.remove();
+            }
+            pending.put(key, sbn);
+        }
+        if(!scheduled) {
+            scheduled = true;
+            handler.post(drain);
+        }
+    }
+
+    /***
+     * Runs a task on the worker thread.
+     * @param task task to run
+     */
+    public void execute(Runnable task) {
+        handler.post(task);
+    }
+
+    /***
+     * Runs a task on the worker thread after a delay.
+     * @param task task to run
+     * @param delayMillis delay in ms
+     */
+    public void executeDelayed(Runnable task, long delayMillis) {
+        handler.postDelayed(task, delayMillis);
+    }
+
+    /***
+     * Removes a task that was not run yet.
+     * @param task task to remove
+     */
+    public void cancel(Runnable task) {
+        handler.removeCallbacks(task);
+    }
+
+    /***
+     * Stops the worker thread after the already queued work is done.
+     */
+    public void quit() {
+        thread.quitSafely();
+    }
+}
@@ -0,0 +1,101 @@
+package linushdot.cgmband;
+
+import android.util.AtomicFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import linushdot.cgmband.pipeline.Pipeline;
+
+/***
+ * Checkpoint of the processor states in a file, so a restarted service continues where it stopped
+ * instead of sending the first value again.
+ *
+ * The state is written through an {@link AtomicFile}, so a crash while writing keeps the previous
+ * checkpoint. It is only written if it changed since the last save. Not thread-safe, used on the
+ * worker thread.
+ */
+public class ProcessorStateStore {
+
+    private final AtomicFile file;
+
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+    private final DataOutputStream bufferOut = new DataOutputStream(buffer);
+
+    // last saved or restored state
+    private byte[] saved = new byte[0];
+
+    public ProcessorStateStore(File file) {
+        this.file = new AtomicFile(file);
+    }
+
+    /***
+     * Restores the processor states of a pipeline from the checkpoint, if there is one
+     * @param pipeline pipeline to restore
+     */
+    public void restore(Pipeline pipeline) {
+        final byte[] state;
+        try {
+            state = file.readFully();
+        } catch(FileNotFoundException e) {
+            return; // no checkpoint yet
+        } catch(IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        try {
+            pipeline.restoreState(new DataInputStream(new ByteArrayInputStream(state)));
+            saved = state;
+        } catch(IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /***
+     * Writes the processor states of a pipeline, unless they did not change
+     * @param pipeline pipeline to save
+     */
+    public void save(Pipeline pipeline) {
+        buffer.reset();
+        try {
+            pipeline.saveState(bufferOut);
+            bufferOut.flush();
+        } catch(IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        final byte[] state = buffer.toByteArray();
+        if(Arrays.equals(state, saved)) {
+            return;
+        }
+
+        FileOutputStream out = null;
+        try {
+            out = file.startWrite();
+            out.write(state);
+            file.finishWrite(out);
+            saved = state;
+        } catch(IOException e) {
+            e.printStackTrace();
+            if(out != null) {
+                file.failWrite(out);
+            }
+        }
+    }
+
+    /***
+     * Deletes the checkpoint.
+     */
+    public void delete() {
+        file.delete();
+        saved = new byte[0];
+    }
+}
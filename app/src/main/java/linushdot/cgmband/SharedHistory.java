@@ -0,0 +1,132 @@
+package linushdot.cgmband;
+
+import android.content.Context;
+
+import java.io.File;
+import java.io.IOException;
+
+import linushdot.cgmband.chart.ChartCache;
+import linushdot.cgmband.history.HistoryStore;
+import linushdot.cgmband.stats.GlucoseStatistics;
+
+/***
+ * Process-wide history store, shared by the notification listener and the UI.
+ *
+ * The store is opened on the first {@link #acquire(Context)} and closed after the last
+ * {@link #release()}, so the file is mapped once and only one instance appends to it. The store
+ * itself is thread-safe.
+ *
+ * The {@link GlucoseStatistics} and the downsampled {@link ChartCache} of the history are seeded from
+ * the last days of the history by the first {@link #acquire(Context)}, new readings are added by
+ * {@link #append(CgmValue)}. Readers of the store only, like the history provider, use
+ * {@link #acquireStore(Context)}, which skips the seeding.
+ */
+public final class SharedHistory {
+
+    private static HistoryStore store;
+
+    private static GlucoseStatistics statistics;
+
+    private static ChartCache charts;
+
+    private static int references;
+
+    private SharedHistory() {
+    }
+
+    /***
+     * Opens the history if necessary and seeds the statistics and charts if they are not yet, every
+     * call has to be matched by a {@link #release()}
+     * @param context context for the files directory
+     * @return the history store
+     * @throws IOException if the history cannot be opened
+     */
+    public static synchronized HistoryStore acquire(Context context) throws IOException {
+        acquireStore(context);
+        if(statistics == null) {
+            statistics = new GlucoseStatistics(Clock.SYSTEM);
+            charts = new ChartCache();
+            final int days = Math.max(GlucoseStatistics.DAYS + 1,
+                    ChartCache.SPAN_DAYS[ChartCache.QUARTER] + 1);
+            final long from = System.currentTimeMillis() - days * 24L * 60 * 60 * 1000;
+            store.scan(from, Long.MAX_VALUE, new HistoryStore.Visitor() {
+                @Override
+                public void visit(long time, float value, int unit) {
+                    statistics.add(time, value, unit);
+                    charts.add(time, value, unit);
+                }
+            });
+        }
+        return store;
+    }
+
+    /***
+     * Opens the history if necessary without seeding the statistics and charts, every call has to
+     * be matched by a {@link #release()}
+     * @param context context for the files directory
+     * @return the history store
+     * @throws IOException if the history cannot be opened
+     */
+    public static synchronized HistoryStore acquireStore(Context context) throws IOException {
+        if(store == null) {
+            store = HistoryStore.open(new File(context.getApplicationContext().getFilesDir(),
+                    NotificationListener.HISTORY_FILE));
+        }
+        references++;
+        return store;
+    }
+
+    /***
+     * Releases the history, closing it if it is not used anymore.
+     */
+    public static synchronized void release() {
+        if(references == 0) {
+            return;
+        }
+        references--;
+        if(references == 0) {
+            try {
+                store.close();
+            } catch(IOException e) {
+                e.printStackTrace();
+            }
+            store = null;
+            statistics = null;
+            charts = null;
+        }
+    }
+
+    /***
+     * Appends a reading to the history, the statistics and the charts, the history has to be
+     * acquired
+     * @param value new reading
+     * @return false if the reading is not after the last one
+     * @throws IOException if the history cannot be extended
+     */
+    public static synchronized boolean append(CgmValue value) throws IOException {
+        if(!store.append(value)) {
+            return false;
+        }
+        if(statistics != null) {
+            statistics.add(value.getTime(), value.getValue(), value.getUnitType().getCode());
+            charts.add(value.getTime(), value.getValue(), value.getUnitType().getCode());
+        }
+        return true;
+    }
+
+    /***
+     * @return statistics of the history, null if the history is not acquired through
+     * {@link #acquire(Context)}
+     */
+    public static synchronized GlucoseStatistics getStatistics() {
+        return statistics;
+    }
+
+    /***
+     * @return downsampled charts of the history, null if the history is not acquired through
+     * {@link #acquire(Context)}
+     */
+    public static synchronized ChartCache getCharts() {
+        return charts;
+    }
+}
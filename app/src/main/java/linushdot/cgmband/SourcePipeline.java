@@ -0,0 +1,254 @@
+package linushdot.cgmband;
+
+import android.content.Context;
+
+import java.io.File;
+
+import linushdot.cgmband.delivery.DeliveryScheduler;
+import linushdot.cgmband.filters.TimeOfDaySchedule;
+import linushdot.cgmband.metrics.PipelineMetrics;
+import linushdot.cgmband.pipeline.DefaultStageFactory;
+import linushdot.cgmband.pipeline.Pipeline;
+import linushdot.cgmband.pipeline.StageFactory;
+import linushdot.cgmband.processors.MessageTemplate;
+
+/***
+ * Processing state of one CGM source: recent readings, pipeline with the processor and filter
+ * states, delivery scheduler and band notification. Sources do not share any of it, so the values
+ * of one sensor cannot reset or delay the alerts of another.
+ *
+ * The band notification of a source has its own ID and is titled with the label of the source, if
+ * it has one.
+ *
+ * Not thread-safe, used on the worker thread. The scheduler can be read from other threads.
+ */
+public class SourcePipeline {
+
+    private final String id;
+
+    private final String label;
+
+    private final NotificationWorker worker;
+
+    private final PipelineMetrics metrics = PipelineMetrics.getInstance();
+
+    private final ReadingBuffer readings;
+
+    private final StageFactory stageFactory;
+
+    private final ProcessorStateStore stateStore;
+
+    private final BandNotificationPublisher publisher;
+
+    private final DeliveryScheduler scheduler;
+
+    private Pipeline pipeline;
+
+    // time of the last value, or of the creation if there was none yet
+    private long lastTime = System.currentTimeMillis();
+
+    // post time of the notification being handled, for the end to end latency
+    private long handledPostTime;
+
+    // rule of the displayed band notification, null if none was posted
+    private String postedRule;
+
+    private final Pipeline.Output output = new Pipeline.Output() {
+        @Override
+        public void output(String rule, CgmValue value, String notification, Urgency urgency,
+                           boolean filtered) {
+            metrics.increment(filtered ? PipelineMetrics.FILTERED : PipelineMetrics.NOTIFICATIONS);
+            showNotification(rule, notification, urgency, filtered);
+        }
+    };
+
+    // delivers the pending notification of the scheduler, runs on the worker thread
+    private final Runnable flush = new Runnable() {
+        @Override
+        public void run() {
+            scheduleFlush(scheduler.flush());
+        }
+    };
+
+    /***
+     * Creates the state of a new source
+     * @param context context for posting notifications
+     * @param worker worker thread the source is processed on
+     * @param id ID of the source
+     * @param label label of the band notification, null for none
+     * @param notificationId ID of the band notification
+     * @param stateFile file of the processor states
+     * @param recentReadings number of recent readings kept for the processors
+     * @param schedule schedule for the time of day filter
+     * @param templates message template source
+     * @param windowMins coalescing window of the delivery scheduler
+     * @param wakeups limit of the band wakeups shared by all sources
+     */
+    public SourcePipeline(Context context, NotificationWorker worker, String id, String label,
+                          int notificationId, File stateFile, int recentReadings,
+                          TimeOfDaySchedule.Source schedule, MessageTemplate.Source templates,
+                          int windowMins, DeliveryScheduler.SharedLimit wakeups) {
+        this.id = id;
+        this.label = label;
+        this.worker = worker;
+        this.readings = new ReadingBuffer(recentReadings);
+        this.stageFactory = new DefaultStageFactory(readings, schedule, Clock.SYSTEM, templates);
+        this.stateStore = new ProcessorStateStore(stateFile);
+        this.publisher = new BandNotificationPublisher(context, NotificationListener.NOTIFICATION_CHANNEL_ID,
+                notificationId, label);
+        this.scheduler = new DeliveryScheduler(Clock.SYSTEM, new DeliveryScheduler.Target() {
+            @Override
+            public boolean deliver(String text, Urgency urgency, String rule, long postTime) {
+                return publish(text, rule, postTime);
+            }
+        }, windowMins, wakeups);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /***
+     * @return label of the band notification, null for none
+     */
+    public String getLabel() {
+        return label;
+    }
+
+    public ReadingBuffer getReadings() {
+        return readings;
+    }
+
+    public BandNotificationPublisher getPublisher() {
+        return publisher;
+    }
+
+    public DeliveryScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /***
+     * @return time of the last value of the source in ms since epoch, the time the source was
+     * created if it had no value yet
+     */
+    public long getLastTime() {
+        return lastTime;
+    }
+
+    /***
+     * Compiles the pipeline from the rules, unless they did not change. Falls back to the default
+     * rules if they are not valid. The processor states are restored after the first compile.
+     * @param config pipeline rules
+     */
+    public void compilePipeline(String config) {
+        if(pipeline != null && pipeline.getConfig().equals(config)) {
+            return;
+        }
+        final boolean first = pipeline == null;
+        try {
+            pipeline = Pipeline.compile(config, stageFactory, pipeline);
+        } catch(IllegalArgumentException e) {
+            e.printStackTrace();
+            if(pipeline == null) {
+                pipeline = Pipeline.compile(Pipeline.DEFAULT_CONFIG, stageFactory, null);
+            }
+        }
+        if(first) {
+            stateStore.restore(pipeline);
+        }
+    }
+
+    /***
+     * Runs a value of this source through the pipeline and saves the processor states.
+     * @param value value, already added to the recent readings if it is a new reading
+     * @param postTime post time of the notification the value was read from
+     */
+    public void process(CgmValue value, long postTime) {
+        if(pipeline == null) {
+            return;
+        }
+        handledPostTime = postTime;
+        lastTime = Math.max(lastTime, value.getTime());
+        final long processStart = System.nanoTime();
+        pipeline.process(value, output);
+        metrics.process.recordSince(processStart);
+        stateStore.save(pipeline);
+    }
+
+    /***
+     * Drops a pending delivery, called when the source is stopped.
+     */
+    public void close() {
+        worker.cancel(flush);
+        scheduler.cancel();
+    }
+
+    /***
+     * Stops the source for good: drops a pending delivery, removes the band notification and
+     * deletes the processor states.
+     */
+    public void delete() {
+        close();
+        publisher.suppress();
+        postedRule = null;
+        stateStore.delete();
+    }
+
+    /**
+     * Passes a notification for the band to the scheduler, or removes the current one if it was
+     * filtered. A filtered rule only drops a pending or displayed notification of its own, not one
+     * of another rule (e.g. a predictive alert stays displayed while the relative delta is filtered
+     * in quiet hours).
+     *
+     * @param rule rule of the notification
+     * @param notification notification message
+     * @param urgency urgency of the notification
+     * @param filtered true if a filter was positive
+     */
+    private void showNotification(String rule, String notification, Urgency urgency,
+                                  boolean filtered) {
+        if(filtered) {
+            if(scheduler.cancel(rule)) {
+                scheduleFlush(DeliveryScheduler.NONE);
+            }
+            if(rule.equals(postedRule)) {
+                publisher.suppress();
+                postedRule = null;
+            }
+        } else {
+            scheduleFlush(scheduler.offer(notification, urgency, rule, handledPostTime));
+        }
+    }
+
+    /**
+     * Posts a notification for the band, called by the scheduler.
+     *
+     * @param notification notification message
+     * @param rule rule of the notification
+     * @param postTime post time of the CGM notification it was generated for
+     * @return true if it was posted
+     */
+    private boolean publish(String notification, String rule, long postTime) {
+        final long publishStart = System.nanoTime();
+        if(!publisher.publish(notification)) {
+            return false;
+        }
+        postedRule = rule;
+        metrics.publish.recordSince(publishStart);
+        metrics.endToEnd.record((System.currentTimeMillis() - postTime) * 1000000);
+        metrics.increment(PipelineMetrics.POSTED);
+        return true;
+    }
+
+    /**
+     * Replaces the scheduled flush of the scheduler.
+     *
+     * @param due time of the flush, {@link DeliveryScheduler#NONE} for no flush
+     */
+    private void scheduleFlush(long due) {
+        worker.cancel(flush);
+        if(due != DeliveryScheduler.NONE) {
+            worker.executeDelayed(flush, Math.max(0, due - System.currentTimeMillis()));
+        }
+    }
+}
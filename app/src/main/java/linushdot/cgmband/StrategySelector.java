@@ -0,0 +1,241 @@
+package linushdot.cgmband;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.os.SystemClock;
+import android.service.notification.StatusBarNotification;
+import android.util.Log;
+
+import androidx.core.content.pm.PackageInfoCompat;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/***
+ * Chooses between several ways of extracting a value from the notifications of an app.
+ *
+ * The strategy that worked last is remembered per package and version of the app (also in the
+ * preferences, so it is kept across restarts), later notifications go straight to it. If it finds
+ * no value, the other strategies are tried in order.
+ *
+ * Strategies tell two cases apart: a notification without value (e.g. sensor warm-up or signal
+ * loss) is returned as null and costs nothing, a strategy that throws (e.g. a
+ * {@link MismatchException} because the notification layout changed) has failed. Only failures
+ * count: the remembered strategy is dropped after {@link #DEMOTE_FAILURES} failures in a row, and
+ * a failing strategy is skipped for a back-off time, doubling with every failure up to
+ * {@link #MAX_BACKOFF}, so after an update of the app changed its notification, broken strategies
+ * (e.g. reflection) are not retried on every notification. Strategies that worked for the version
+ * of the app back off at most {@link #READING_INTERVAL}, so no reading is missed for long after a
+ * transient failure. Failures are logged once per back-off, without stack traces.
+ *
+ * When the remembered strategy finds nothing, the version of the app is checked again, at most once
+ * per {@link #VERSION_CHECK_INTERVAL} as it is a package manager call, so notifications without a
+ * value (e.g. sensor warm-up) do not query it every time. An updated app starts over without
+ * remembered strategy. Not thread-safe, used on the worker thread.
+ */
+public class StrategySelector {
+
+    private static final String TAG = "StrategySelector";
+
+    private static final String KEY_PREFIX = "extraction_strategy_";
+
+    // consecutive failures after which the remembered strategy is dropped
+    private static final int DEMOTE_FAILURES = 3;
+
+    private static final long MIN_BACKOFF = 5 * 60 * 1000;
+
+    // back-off limit of strategies that worked for the app version
+    private static final long READING_INTERVAL = 5 * 60 * 1000;
+
+    private static final long MAX_BACKOFF = 24 * 60 * 60 * 1000;
+
+    // minimum time between two checks of the version of an app
+    private static final long VERSION_CHECK_INTERVAL = 15 * 60 * 1000;
+
+    /***
+     * One way of extracting a value from a notification.
+     */
+    public interface Strategy {
+
+        /***
+         * @return stable name of the strategy, stored in the preferences
+         */
+        String getName();
+
+        /***
+         * Extracts a value
+         * @param sbn status bar notification
+         * @return extracted value, null if the notification has the expected layout but no value
+         * @throws MismatchException if the notification does not have the expected layout
+         */
+        CgmValue extract(StatusBarNotification sbn);
+
+    }
+
+    /***
+     * Thrown by a strategy if the notification does not have the layout the strategy expects.
+     */
+    public static class MismatchException extends RuntimeException {
+
+        public MismatchException(String message) {
+            super(message);
+        }
+    }
+
+    private final SharedPreferences prefs;
+
+    private final PackageManager packageManager;
+
+    private final Strategy[] strategies;
+
+    private final Map<String, State> states = new HashMap<>();
+
+    /***
+     * Creates a new selector
+     * @param context context for the preferences and the package manager
+     * @param strategies strategies, tried in this order if none is remembered
+     */
+    public StrategySelector(Context context, Strategy... strategies) {
+        this.prefs = context.getApplicationContext().getSharedPreferences("prefs", 0);
+        this.packageManager = context.getApplicationContext().getPackageManager();
+        this.strategies = strategies;
+    }
+
+    /***
+     * Extracts a value with the remembered strategy or the first working one
+     * @param sbn status bar notification
+     * @return extracted value, null if no strategy worked
+     */
+    public CgmValue extract(StatusBarNotification sbn) {
+        final String packageName = sbn.getPackageName();
+        final long now = SystemClock.elapsedRealtime();
+        State state = states.get(packageName);
+        if(state == null) {
+            state = load(packageName, getVersionCode(packageName), now);
+            states.put(packageName, state);
+        }
+
+        // strategy already tried for this notification
+        int tried = -1;
+        if(state.preferred >= 0) {
+            final CgmValue value = tryStrategy(state, state.preferred, sbn);
+            if(value != null) {
+                return value;
+            }
+            tried = state.preferred;
+
+            long versionCode = state.versionCode;
+            if(now - state.versionCheckTime >= VERSION_CHECK_INTERVAL) {
+                versionCode = getVersionCode(packageName);
+                state.versionCheckTime = now;
+            }
+            if(versionCode != state.versionCode) {
+                Log.w(TAG, packageName + " updated to version " + versionCode);
+                state = load(packageName, versionCode, now);
+                states.put(packageName, state);
+                tried = -1;
+            } else if(state.failures[tried] >= DEMOTE_FAILURES) {
+                state.preferred = -1; // e.g. notification layout changed
+            }
+        }
+
+        for(int i = 0; i < strategies.length; i++) {
+            if(i == tried || now < state.retryAfter[i]) {
+                continue;
+            }
+            final CgmValue value = tryStrategy(state, i, sbn);
+            if(value != null) {
+                if(state.preferred != i) {
+                    state.preferred = i;
+                    prefs.edit().putString(key(packageName, state.versionCode),
+                            strategies[i].getName()).apply();
+                }
+                return value;
+            }
+        }
+        return null;
+    }
+
+    private CgmValue tryStrategy(State state, int index, StatusBarNotification sbn) {
+        CgmValue value;
+        String error = null;
+        try {
+            value = strategies[index].extract(sbn);
+        } catch(RuntimeException e) {
+            value = null;
+            error = e.toString();
+        }
+        if(value != null || error == null) {
+            // a value or no value in the expected layout, the strategy works
+            state.failures[index] = 0;
+            state.retryAfter[index] = 0;
+            if(value != null) {
+                state.worked[index] = true;
+            }
+            return value;
+        }
+
+        final int failures = ++state.failures[index];
+        final long backoff = Math.min(state.worked[index] ? READING_INTERVAL : MAX_BACKOFF,
+                MIN_BACKOFF << Math.min(failures - 1, 16));
+        state.retryAfter[index] = SystemClock.elapsedRealtime() + backoff;
+        Log.w(TAG, strategies[index].getName() + " failed for " + sbn.getPackageName() + " (" +
+                failures + " times" + (error != null ? ", " + error : "") + "), retry in " +
+                backoff / 60000 + " min");
+        return null;
+    }
+
+    private State load(String packageName, long versionCode, long versionCheckTime) {
+        final State state = new State(versionCode, strategies.length);
+        state.versionCheckTime = versionCheckTime;
+        final String name = prefs.getString(key(packageName, versionCode), null);
+        for(int i = 0; i < strategies.length; i++) {
+            if(strategies[i].getName().equals(name)) {
+                state.preferred = i;
+                state.worked[i] = true;
+            }
+        }
+        return state;
+    }
+
+    private long getVersionCode(String packageName) {
+        try {
+            return PackageInfoCompat.getLongVersionCode(packageManager.getPackageInfo(packageName, 0));
+        } catch(PackageManager.NameNotFoundException e) {
+            return -1; // not visible, strategies are remembered per package only
+        }
+    }
+
+    private static String key(String packageName, long versionCode) {
+        return KEY_PREFIX + packageName + "_" + versionCode;
+    }
+
+    /***
+     * Strategy state of one package.
+     */
+    private static final class State {
+
+        final long versionCode;
+
+        // elapsed realtime of the last check of the version
+        long versionCheckTime;
+
+        int preferred = -1;
+
+        final int[] failures;
+
+        // elapsed realtime until which a strategy is skipped
+        final long[] retryAfter;
+
+        // strategies that extracted a value for this version
+        final boolean[] worked;
+
+        State(long versionCode, int count) {
+            this.versionCode = versionCode;
+            this.failures = new int[count];
+            this.retryAfter = new long[count];
+            this.worked = new boolean[count];
+        }
+    }
+}
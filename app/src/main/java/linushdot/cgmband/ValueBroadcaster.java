@@ -0,0 +1,115 @@
+package linushdot.cgmband;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+
+/***
+ * Sends extracted values to the UI.
+ *
+ * Values are encoded as primitive extras (time, value and a unit code) and broadcast only inside
+ * this package. Broadcasts are skipped while no receiver is registered through
+ * {@link #register(Context, BroadcastReceiver)}, and reposts of the last value are throttled.
+ */
+public final class ValueBroadcaster {
+
+    public static final String EXTRA_VALUE = "value";
+    public static final String EXTRA_TIME = "time";
+    public static final String EXTRA_UNIT = "unit";
+    public static final String EXTRA_UNIT_NAME = "unit_name";
+
+    // reposts of the last value are broadcast at most once in this interval
+    private static final long MIN_REPOST_INTERVAL = 60 * 1000;
+
+    private static int receivers = 0;
+
+    private static CgmValue lastBroadcast;
+
+    private ValueBroadcaster() {
+    }
+
+    /***
+     * Registers a receiver for values
+     * @param context context to register with
+     * @param receiver receiver, use {@link #getValue(Intent)} to decode values
+     */
+    public static void register(Context context, BroadcastReceiver receiver) {
+        context.registerReceiver(receiver, new IntentFilter(NotificationListener.ACTION_RESPONSE));
+        synchronized(ValueBroadcaster.class) {
+            receivers++;
+            lastBroadcast = null; // new receiver needs the current value
+        }
+    }
+
+    /***
+     * Unregisters a receiver registered through {@link #register(Context, BroadcastReceiver)}
+     * @param context context registered with
+     * @param receiver receiver
+     */
+    public static void unregister(Context context, BroadcastReceiver receiver) {
+        context.unregisterReceiver(receiver);
+        synchronized(ValueBroadcaster.class) {
+            receivers--;
+        }
+    }
+
+    /***
+     * Broadcasts a value, if a receiver is registered and it is not a recent repost of the last
+     * value broadcast.
+     * @param context context to send from
+     * @param value value to broadcast
+     */
+    public static void broadcast(Context context, CgmValue value) {
+        synchronized(ValueBroadcaster.class) {
+            if(receivers <= 0) {
+                return;
+            }
+            if(lastBroadcast != null && lastBroadcast.getValue() == value.getValue() &&
+                    lastBroadcast.getUnit().equals(value.getUnit()) &&
+                    value.getTime() - lastBroadcast.getTime() < MIN_REPOST_INTERVAL) {
+                return;
+            }
+            lastBroadcast = value;
+        }
+
+        final Intent i = new Intent(NotificationListener.ACTION_RESPONSE);
+        i.setPackage(context.getPackageName());
+        putValue(i, value);
+        context.sendBroadcast(i);
+    }
+
+    /***
+     * Encodes a value as extras
+     * @param intent intent to put extras in
+     * @param value value
+     */
+    public static void putValue(Intent intent, CgmValue value) {
+        final CgmUnit unit = value.getUnitType();
+        intent.putExtra(EXTRA_TIME, value.getTime());
+        intent.putExtra(EXTRA_VALUE, value.getValue());
+        intent.putExtra(EXTRA_UNIT, unit.getCode());
+        if(unit == CgmUnit.UNKNOWN) {
+            intent.putExtra(EXTRA_UNIT_NAME, value.getUnit());
+        }
+    }
+
+    /***
+     * Decodes a value from extras
+     * @param intent intent with extras from {@link #putValue(Intent, CgmValue)}
+     * @return decoded value, null if the intent has no value
+     */
+    public static CgmValue getValue(Intent intent) {
+        if(!intent.hasExtra(EXTRA_VALUE)) {
+            return null;
+        }
+        final CgmUnit unit = CgmUnit.fromCode(intent.getIntExtra(EXTRA_UNIT, CgmUnit.UNKNOWN.getCode()));
+        final float value = intent.getFloatExtra(EXTRA_VALUE, 0);
+        final long time = intent.getLongExtra(EXTRA_TIME, 0);
+        if(unit == CgmUnit.UNKNOWN) {
+            final String unitName = intent.getStringExtra(EXTRA_UNIT_NAME);
+            return new CgmValue(value, unitName != null ? unitName : "", time);
+        }
+        return new CgmValue(value, unit, time);
+    }
+}
@@ -0,0 +1,112 @@
+package linushdot.cgmband.chart;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.util.AttributeSet;
+import android.view.View;
+
+import linushdot.cgmband.stats.GlucoseStatistics;
+
+/***
+ * Line chart of a downsampled series of the history in mg/dL, with lines at the limits of the
+ * target range.
+ *
+ * The series is given as {@link LttbSeries.Snapshot} with at most {@link ChartCache#POINTS} points,
+ * the path is built once when the series or the size changes. Gaps in the readings are not
+ * connected.
+ */
+public class HistoryChartView extends View {
+
+    private static final float LOW = 70;
+
+    private static final float HIGH = 180;
+
+    // gaps longer than this are not connected, at least
+    private static final long MIN_GAP = 15 * 60 * 1000;
+
+    private final Paint linePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+    private final Paint rangePaint = new Paint();
+
+    private final Path path = new Path();
+
+    private LttbSeries.Snapshot series;
+
+    private long from;
+
+    private long to;
+
+    public HistoryChartView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        linePaint.setColor(Color.BLACK);
+        linePaint.setStyle(Paint.Style.STROKE);
+        linePaint.setStrokeWidth(3);
+        rangePaint.setColor(Color.LTGRAY);
+        rangePaint.setStrokeWidth(2);
+    }
+
+    /***
+     * Displays a series
+     * @param series points of the series
+     * @param from start of the time axis in ms since epoch
+     * @param to end of the time axis in ms since epoch
+     */
+    public void setSeries(LttbSeries.Snapshot series, long from, long to) {
+        this.series = series;
+        this.from = from;
+        this.to = to;
+        buildPath();
+        invalidate();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        buildPath();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        final float left = getPaddingLeft();
+        final float right = getWidth() - getPaddingRight();
+        canvas.drawLine(left, toY(LOW), right, toY(LOW), rangePaint);
+        canvas.drawLine(left, toY(HIGH), right, toY(HIGH), rangePaint);
+        canvas.drawPath(path, linePaint);
+    }
+
+    private void buildPath() {
+        path.reset();
+        if(series == null || series.size() == 0 || to <= from) {
+            return;
+        }
+        final float left = getPaddingLeft();
+        final float width = getWidth() - getPaddingLeft() - getPaddingRight();
+        final long maxGap = Math.max(MIN_GAP, 3 * (to - from) / ChartCache.POINTS);
+
+        long previous = Long.MIN_VALUE;
+        for(int i = 0; i < series.size(); i++) {
+            final long time = series.times[i];
+            final float x = left + width * (time - from) / (to - from);
+            final float y = toY(series.values[i]);
+            if(previous == Long.MIN_VALUE || time - previous > maxGap) {
+                path.moveTo(x, y);
+            } else {
+                path.lineTo(x, y);
+            }
+            previous = time;
+        }
+    }
+
+    private float toY(float mgdl) {
+        final float clamped = Math.max(GlucoseStatistics.MIN_MGDL,
+                Math.min(GlucoseStatistics.MAX_MGDL, mgdl));
+        final float top = getPaddingTop();
+        final float height = getHeight() - getPaddingTop() - getPaddingBottom();
+        return top + height * (GlucoseStatistics.MAX_MGDL - clamped) /
+                (GlucoseStatistics.MAX_MGDL - GlucoseStatistics.MIN_MGDL);
+    }
+}
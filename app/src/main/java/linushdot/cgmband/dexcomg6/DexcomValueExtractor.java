@@ -1,37 +1,118 @@
 package linushdot.cgmband.dexcomg6;
 
 import android.app.Notification;
+import android.content.Context;
+import android.os.Bundle;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.service.notification.StatusBarNotification;
 import android.text.TextUtils;
+import android.util.Log;
 import android.widget.RemoteViews;
 
 import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 
 import linushdot.cgmband.CgmValue;
 import linushdot.cgmband.CgmValueExtractor;
+import linushdot.cgmband.StrategySelector;
 
 /***
- * This extractor supports Dexcom G6 notifications.
+ * This extractor supports Dexcom notifications.
  *
- * Currently it only matches some packages, needs to be expanded.
+ * Currently it only matches the packages of the G6 app, needs to be expanded. Only the G6 regions 1
+ * and 3 were tested, region 2 is expected to use the same notification. The G7 and Dexcom ONE apps
+ * are not matched until their notification layout is verified.
  * Also the value extraction through reflection was only tested on android 9 and could be unreliable
  * on other android versions and versions of the Dexcom app.
+ *
+ * Extraction strategies, tried in this order until one works for the installed Dexcom app, which is
+ * then remembered by the {@link StrategySelector}:
+ * 1. the text fields of {@link Notification#extras} (no reflection at all)
+ * 2. the setText actions of the content view, read through a cached reflection plan
+ * 3. the ticker text
+ *
+ * The text is parsed by {@link DexcomTextParser}. Instances are not thread-safe, the parser and
+ * string builder are reused between calls.
  */
 public class DexcomValueExtractor implements CgmValueExtractor {
 
+    private static final String[] EXTRAS_TEXT_KEYS = {
+            Notification.EXTRA_TITLE, Notification.EXTRA_TEXT, Notification.EXTRA_BIG_TEXT};
+
+    private static final String TAG = "DexcomValueExtractor";
+
+    private static final String REFLECTION_ACTION_CLASS = "android.widget.RemoteViews$ReflectionAction";
+
     // Only consider notifications from the following packages, needs expansion
-    private final List<String> packageFilter =
+    private final Set<String> packageFilter = Collections.unmodifiableSet(new HashSet<>(
             Arrays.asList("com.dexcom.g6.region1.mmol",
                     "com.dexcom.g6.region1.mgdl",
+                    "com.dexcom.g6.region2.mmol",
+                    "com.dexcom.g6.region2.mgdl",
                     "com.dexcom.g6.region3.mmol",
-                    "com.dexcom.g6.region3.mgdl");
+                    "com.dexcom.g6.region3.mgdl")));
+
+    private final DexcomTextParser parser = new DexcomTextParser();
+
+    private final StringBuilder textBuilder = new StringBuilder();
+
+    private final StrategySelector selector;
+
+    public DexcomValueExtractor(Context context) {
+        selector = new StrategySelector(context,
+                new StrategySelector.Strategy() {
+                    @Override
+                    public String getName() {
+                        return "extras";
+                    }
+
+                    @Override
+                    public CgmValue extract(StatusBarNotification sbn) {
+                        return extractFromExtras(sbn.getNotification().extras, sbn.getPostTime());
+                    }
+                },
+                new StrategySelector.Strategy() {
+                    @Override
+                    public String getName() {
+                        return "remote_views";
+                    }
+
+                    @Override
+                    public CgmValue extract(StatusBarNotification sbn) {
+                        final CharSequence str = getStringFromNotification(sbn.getNotification());
+                        if(str == null || str.length() == 0) {
+                            throw new StrategySelector.MismatchException("no setText actions");
+                        }
+                        return parser.parse(str, sbn.getPostTime());
+                    }
+                },
+                new StrategySelector.Strategy() {
+                    @Override
+                    public String getName() {
+                        return "ticker";
+                    }
+
+                    @Override
+                    public CgmValue extract(StatusBarNotification sbn) {
+                        final CharSequence ticker = sbn.getNotification().tickerText;
+                        if(ticker == null || ticker.length() == 0) {
+                            throw new StrategySelector.MismatchException("no ticker text");
+                        }
+                        return parser.parse(ticker, sbn.getPostTime());
+                    }
+                });
+    }
+
+    @Override
+    public Collection<String> getPackageNames() {
+        return packageFilter;
+    }
 
     @Override
     public boolean match(StatusBarNotification sbn) {
@@ -41,27 +122,34 @@ public class DexcomValueExtractor implements CgmValueExtractor {
 
     @Override
     public CgmValue extract(StatusBarNotification sbn) {
+        return selector.extract(sbn);
+    }
 
-        final String str = getStringFromNotification(sbn.getNotification());
-        if(str == null) {
-            return null;
-        }
-
-        Matcher matcher = Pattern.compile("([0-9.]+) ([A-z/]+)").matcher(str);
-        if(!matcher.matches()) {
-            return null;
+    /***
+     * Tries to parse the value from the plain text fields of the notification extras.
+     * @param extras notification extras, may be null
+     * @param time time of the value
+     * @return the value, null if no text field has the format "value unit"
+     * @throws StrategySelector.MismatchException if there is no text field at all
+     */
+    private CgmValue extractFromExtras(Bundle extras, long time) {
+        boolean hasText = false;
+        if(extras != null) {
+            for(String key : EXTRAS_TEXT_KEYS) {
+                final CharSequence text = extras.getCharSequence(key);
+                if(text != null && text.length() > 0) {
+                    hasText = true;
+                    final CgmValue value = parser.parse(text, time);
+                    if(value != null) {
+                        return value;
+                    }
+                }
+            }
         }
-
-        try {
-            final float value = Float.parseFloat(matcher.group(1));
-            final String unit = matcher.group(2);
-            final long time = sbn.getPostTime();
-
-            return new CgmValue(value, unit, time);
-
-        } catch(NumberFormatException e) {
-            return null;
+        if(!hasText) {
+            throw new StrategySelector.MismatchException("no text extras");
         }
+        return null;
     }
 
     /**
@@ -70,7 +158,8 @@ public class DexcomValueExtractor implements CgmValueExtractor {
      * Tested only on Android 9 (API level 28) !
      *
      * It concatenates the values of all setText actions found in the content view of the
-     * notification separated by spaces.
+     * notification separated by spaces. Actions of other types are skipped without being
+     * written to a parcel, setText actions are read through cached fields when possible.
      *
      * Inspired by code from:
      * https://stackoverflow.com/questions/9293617/retrieve-text-from-a-remoteviews-object
@@ -78,53 +167,172 @@ public class DexcomValueExtractor implements CgmValueExtractor {
      * @param notification Notification containing the CGM value
      * @return Concatenated strings from notification, should have the format "value unit"
      */
-    private String getStringFromNotification(Notification notification) {
-        final StringBuilder sb = new StringBuilder();
+    private CharSequence getStringFromNotification(Notification notification) {
+        final StringBuilder sb = textBuilder;
+        sb.setLength(0);
 
         RemoteViews views = notification.bigContentView;
         if (views == null) views = notification.contentView;
         if (views == null) return null;
 
-        try {
-            Field field = views.getClass().getDeclaredField("mActions");
-            field.setAccessible(true);
+        final ReflectionPlan plan = ReflectionPlan.get();
+        if(plan == null) return null;
 
+        try {
             @SuppressWarnings("unchecked")
-            ArrayList<Parcelable> actions = (ArrayList<Parcelable>) field.get(views);
+            ArrayList<Parcelable> actions = (ArrayList<Parcelable>) plan.actions.get(views);
+            if(actions == null) return null;
 
-            for (Parcelable p : actions)
+            for (int i = 0; i < actions.size(); i++)
             {
-                Parcel parcel = Parcel.obtain();
-                p.writeToParcel(parcel, 0);
-                parcel.setDataPosition(0);
-
-                // View ID, ignore
-                parcel.readInt();
-
-                String methodName = parcel.readString();
-                if (methodName == null) continue;
-
-                // Save strings
-                else if (methodName.equals("setText"))
-                {
-                    // Parameter type (10 = Character Sequence)
-                    parcel.readInt();
-
-                    // Store the actual string
-                    String t = TextUtils.CHAR_SEQUENCE_CREATOR.createFromParcel(parcel).toString().trim();
-                    if(sb.length() > 0) {
-                        sb.append(" ");
+                final Parcelable p = actions.get(i);
+                if(!REFLECTION_ACTION_CLASS.equals(p.getClass().getName())) {
+                    continue; // not a setText action
+                }
+
+                final CharSequence t;
+                if(plan.methodName != null) {
+                    if(!"setText".equals(plan.methodName.get(p))) {
+                        continue;
+                    }
+                    final Object value = plan.value.get(p);
+                    if(!(value instanceof CharSequence)) {
+                        continue;
+                    }
+                    t = (CharSequence) value;
+                } else {
+                    t = readTextFromParcel(p);
+                    if(t == null) {
+                        continue;
                     }
-                    sb.append(t);
                 }
 
-                parcel.recycle();
+                if(sb.length() > 0) {
+                    sb.append(" ");
+                }
+                appendTrimmed(sb, t);
             }
         } catch(Exception e) {
-            e.printStackTrace();
+            Log.w(TAG, "Reading content view failed: " + e);
             return null;
         }
 
-        return sb.toString().trim();
+        int length = sb.length();
+        while(length > 0 && sb.charAt(length - 1) == ' ') length--;
+        sb.setLength(length);
+        return sb;
+    }
+
+    /***
+     * Legacy decoding of a reflection action by writing it to a parcel, used if the fields of the
+     * action class could not be resolved.
+     * @param p action
+     * @return text of the action if it is a setText action, null otherwise
+     */
+    private static CharSequence readTextFromParcel(Parcelable p) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            p.writeToParcel(parcel, 0);
+            parcel.setDataPosition(0);
+
+            // View ID, ignore
+            parcel.readInt();
+
+            String methodName = parcel.readString();
+            if (!"setText".equals(methodName)) {
+                return null;
+            }
+
+            // Parameter type (10 = Character Sequence)
+            parcel.readInt();
+
+            return TextUtils.CHAR_SEQUENCE_CREATOR.createFromParcel(parcel);
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    private static void appendTrimmed(StringBuilder sb, CharSequence t) {
+        int start = 0;
+        int end = t.length();
+        while(start < end && t.charAt(start) <= ' ') start++;
+        while(end > start && t.charAt(end - 1) <= ' ') end--;
+        sb.append(t, start, end);
+    }
+
+    /***
+     * Fields of RemoteViews and its reflection action, resolved once per process.
+     *
+     * The field names changed between android versions (e.g. "methodName" on android 9,
+     * "mMethodName" later), so both are tried. If the action fields cannot be found, only the
+     * actions field is used and setText actions are decoded through a parcel.
+     */
+    private static final class ReflectionPlan {
+
+        private static volatile ReflectionPlan instance;
+
+        private static volatile boolean resolved;
+
+        final Field actions;
+
+        final Field methodName;
+
+        final Field value;
+
+        private ReflectionPlan(Field actions, Field methodName, Field value) {
+            this.actions = actions;
+            this.methodName = methodName;
+            this.value = value;
+        }
+
+        static ReflectionPlan get() {
+            if(!resolved) {
+                synchronized(ReflectionPlan.class) {
+                    if(!resolved) {
+                        instance = resolve();
+                        resolved = true;
+                    }
+                }
+            }
+            return instance;
+        }
+
+        private static ReflectionPlan resolve() {
+            final Field actions;
+            try {
+                actions = RemoteViews.class.getDeclaredField("mActions");
+                actions.setAccessible(true);
+            } catch(Exception e) {
+                Log.w(TAG, "RemoteViews actions not accessible: " + e);
+                return null;
+            }
+
+            Field methodName = null;
+            Field value = null;
+            try {
+                final Class<?> actionClass = Class.forName(REFLECTION_ACTION_CLASS);
+                methodName = findField(actionClass, "methodName", "mMethodName");
+                value = findField(actionClass, "value", "mValue");
+            } catch(ClassNotFoundException e) {
+                // fall back to parcel decoding
+            }
+            if(methodName == null || value == null) {
+                return new ReflectionPlan(actions, null, null);
+            }
+            return new ReflectionPlan(actions, methodName, value);
+        }
+
+        private static Field findField(Class<?> cls, String... names) {
+            for(String name : names) {
+                try {
+                    final Field field = cls.getDeclaredField(name);
+                    field.setAccessible(true);
+                    return field;
+                } catch(Exception e) {
+                    // try next name
+                }
+            }
+            return null;
+        }
     }
 }
@@ -0,0 +1,79 @@
+package linushdot.cgmband.filters;
+
+import android.content.SharedPreferences;
+
+/***
+ * Schedule source backed by the preferences.
+ *
+ * The schedule is compiled once and cached, it is only recompiled when one of the filter keys
+ * changes. If {@link TimeOfDayFilter#KEY_FILTER_WINDOWS} is set, its windows are used, otherwise a
+ * daily window from the start and end time keys (no windows if all of them are 0).
+ *
+ * There is one instance per process, shared by the filter and the UI.
+ */
+public class PreferencesScheduleSource implements TimeOfDaySchedule.Source,
+        SharedPreferences.OnSharedPreferenceChangeListener {
+
+    private static PreferencesScheduleSource instance;
+
+    private final SharedPreferences prefs;
+
+    private volatile TimeOfDaySchedule schedule;
+
+    private PreferencesScheduleSource(SharedPreferences prefs) {
+        this.prefs = prefs;
+        this.schedule = compile(prefs);
+        prefs.registerOnSharedPreferenceChangeListener(this);
+    }
+
+    /***
+     * @param prefs preferences containing the filter keys
+     * @return shared schedule source
+     */
+    public static synchronized PreferencesScheduleSource getInstance(SharedPreferences prefs) {
+        if(instance == null || instance.prefs != prefs) {
+            if(instance != null) {
+                instance.prefs.unregisterOnSharedPreferenceChangeListener(instance);
+            }
+            instance = new PreferencesScheduleSource(prefs);
+        }
+        return instance;
+    }
+
+    @Override
+    public TimeOfDaySchedule getSchedule() {
+        return schedule;
+    }
+
+    @Override
+    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+        if(TimeOfDayFilter.KEY_FILTER_WINDOWS.equals(key) ||
+                TimeOfDayFilter.KEY_FILTER_START_HOUR.equals(key) ||
+                TimeOfDayFilter.KEY_FILTER_START_MINUTE.equals(key) ||
+                TimeOfDayFilter.KEY_FILTER_END_HOUR.equals(key) ||
+                TimeOfDayFilter.KEY_FILTER_END_MINUTE.equals(key)) {
+            schedule = compile(sharedPreferences);
+        }
+    }
+
+    private static TimeOfDaySchedule compile(SharedPreferences prefs) {
+        final String windows = prefs.getString(TimeOfDayFilter.KEY_FILTER_WINDOWS, null);
+        if(windows != null && !windows.trim().isEmpty()) {
+            try {
+                return TimeOfDaySchedule.parse(windows);
+            } catch(IllegalArgumentException e) {
+                e.printStackTrace(); // fall back to the daily window
+            }
+        }
+
+        final int startHour = prefs.getInt(TimeOfDayFilter.KEY_FILTER_START_HOUR, 0);
+        final int startMinute = prefs.getInt(TimeOfDayFilter.KEY_FILTER_START_MINUTE, 0);
+        final int endHour = prefs.getInt(TimeOfDayFilter.KEY_FILTER_END_HOUR, 0);
+        final int endMinute = prefs.getInt(TimeOfDayFilter.KEY_FILTER_END_MINUTE, 0);
+
+        if(startHour == 0 && startMinute == 0 && endHour == 0 && endMinute == 0) {
+            return TimeOfDaySchedule.ALWAYS;
+        }
+        return TimeOfDaySchedule.daily(startHour, startMinute, endHour, endMinute);
+    }
+}
@@ -0,0 +1,93 @@
+package linushdot.cgmband.generic;
+
+import android.app.Notification;
+import android.os.Bundle;
+import android.service.notification.StatusBarNotification;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import linushdot.cgmband.CgmValue;
+import linushdot.cgmband.CgmValueExtractor;
+
+/***
+ * Extractor for CGM apps showing the value in the plain text fields of their notification (title,
+ * text or big text), parsed by a {@link GlucoseTextParser} with the layout of the app.
+ *
+ * Matches ongoing notifications of the given packages. The layouts were not verified on devices, so
+ * they require the unit next to the value: texts without it (e.g. status notifications or apps set
+ * to hide the unit) yield no value rather than a guessed one.
+ */
+public class TextValueExtractor implements CgmValueExtractor {
+
+    /***
+     * Follower and reader apps known to show the value in their notification text: xDrip+,
+     * Juggluco and the FreeStyle Libre apps.
+     */
+    public static final String[] DEFAULT_PACKAGES = {
+            "com.eveningoutpost.dexdrip",
+            "tk.glucodata",
+            "com.freestylelibre.app",
+            "com.freestylelibre.app.de",
+            "com.freestylelibre3.app",
+            "com.freestylelibre3.app.de",
+            "org.nativescript.LibreLinkUp"
+    };
+
+    // xDrip+ and Juggluco put the trend arrow and delta between the value and the unit
+    private static final Map<String, Pattern> LAYOUTS = new HashMap<>();
+    static {
+        LAYOUTS.put("com.eveningoutpost.dexdrip", GlucoseTextParser.VALUE_TREND_UNIT);
+        LAYOUTS.put("tk.glucodata", GlucoseTextParser.VALUE_TREND_UNIT);
+    }
+
+    private static final String[] EXTRAS_TEXT_KEYS = {
+            Notification.EXTRA_TITLE, Notification.EXTRA_TEXT, Notification.EXTRA_BIG_TEXT};
+
+    private final Map<String, GlucoseTextParser> parsers = new HashMap<>();
+
+    public TextValueExtractor() {
+        this(DEFAULT_PACKAGES);
+    }
+
+    public TextValueExtractor(String... packages) {
+        for(String pkg : packages) {
+            final Pattern layout = LAYOUTS.get(pkg);
+            parsers.put(pkg, new GlucoseTextParser(
+                    layout != null ? layout : GlucoseTextParser.VALUE_UNIT));
+        }
+    }
+
+    @Override
+    public Collection<String> getPackageNames() {
+        return Collections.unmodifiableSet(parsers.keySet());
+    }
+
+    @Override
+    public boolean match(StatusBarNotification sbn) {
+        return (parsers.containsKey(sbn.getPackageName()) &&
+                (sbn.getNotification().flags & Notification.FLAG_ONGOING_EVENT) != 0);
+    }
+
+    @Override
+    public CgmValue extract(StatusBarNotification sbn) {
+        final GlucoseTextParser parser = parsers.get(sbn.getPackageName());
+        final Bundle extras = sbn.getNotification().extras;
+        if(parser == null || extras == null) {
+            return null;
+        }
+        for(String key : EXTRAS_TEXT_KEYS) {
+            final CharSequence text = extras.getCharSequence(key);
+            if(text != null && text.length() > 0) {
+                final CgmValue value = parser.parse(text, sbn.getPostTime());
+                if(value != null) {
+                    return value;
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,66 @@
+package linushdot.cgmband.processors;
+
+import android.content.SharedPreferences;
+
+/***
+ * Message template source backed by the preferences.
+ *
+ * The template of {@link RelativeDeltaProcessor#KEY_MESSAGE_TEMPLATE} is compiled once and cached,
+ * it is only recompiled when the key changes. If the key is not set or its template is not valid,
+ * the {@link MessageTemplate#DEFAULT} template is used.
+ *
+ * There is one instance per process.
+ */
+public class PreferencesTemplateSource implements MessageTemplate.Source,
+        SharedPreferences.OnSharedPreferenceChangeListener {
+
+    private static PreferencesTemplateSource instance;
+
+    private final SharedPreferences prefs;
+
+    private volatile MessageTemplate template;
+
+    private PreferencesTemplateSource(SharedPreferences prefs) {
+        this.prefs = prefs;
+        this.template = compile(prefs);
+        prefs.registerOnSharedPreferenceChangeListener(this);
+    }
+
+    /***
+     * @param prefs preferences containing the template key
+     * @return shared template source
+     */
+    public static synchronized PreferencesTemplateSource getInstance(SharedPreferences prefs) {
+        if(instance == null || instance.prefs != prefs) {
+            if(instance != null) {
+                instance.prefs.unregisterOnSharedPreferenceChangeListener(instance);
+            }
+            instance = new PreferencesTemplateSource(prefs);
+        }
+        return instance;
+    }
+
+    @Override
+    public MessageTemplate getTemplate() {
+        return template;
+    }
+
+    @Override
+    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+        if(RelativeDeltaProcessor.KEY_MESSAGE_TEMPLATE.equals(key)) {
+            template = compile(sharedPreferences);
+        }
+    }
+
+    private static MessageTemplate compile(SharedPreferences prefs) {
+        final String template = prefs.getString(RelativeDeltaProcessor.KEY_MESSAGE_TEMPLATE, null);
+        if(template != null && !template.isEmpty()) {
+            try {
+                return MessageTemplate.compile(template);
+            } catch(IllegalArgumentException e) {
+                e.printStackTrace(); // fall back to the default template
+            }
+        }
+        return MessageTemplate.compile(MessageTemplate.DEFAULT);
+    }
+}
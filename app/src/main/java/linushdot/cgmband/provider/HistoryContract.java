@@ -0,0 +1,50 @@
+package linushdot.cgmband.provider;
+
+import android.net.Uri;
+
+/***
+ * Contract of the {@link HistoryProvider} for other apps.
+ *
+ * Readings in a time range are queried with:
+ * content://linushdot.cgmband.history/readings?from={ms since epoch}&to={ms since epoch}
+ *
+ * Both parameters are optional, without "from" the last 24 hours are returned and without "to" all
+ * readings up to now. Rows are sorted by time. Observers registered for {@link #READINGS_URI} are
+ * notified about new readings.
+ *
+ * Apps need the {@link #PERMISSION_READ_HISTORY} permission.
+ */
+public final class HistoryContract {
+
+    public static final String AUTHORITY = "linushdot.cgmband.history";
+
+    public static final String PERMISSION_READ_HISTORY = "linushdot.cgmband.permission.READ_HISTORY";
+
+    public static final Uri READINGS_URI = Uri.parse("content://" + AUTHORITY + "/readings");
+
+    public static final String PARAM_FROM = "from";
+
+    public static final String PARAM_TO = "to";
+
+    public static final String CONTENT_TYPE = "vnd.android.cursor.dir/vnd.linushdot.cgmband.reading";
+
+    /***
+     * Time of the reading in ms since epoch (long)
+     */
+    public static final String COLUMN_TIME = "time";
+
+    /***
+     * CGM value in the unit of the reading (double)
+     */
+    public static final String COLUMN_VALUE = "value";
+
+    /***
+     * Unit as displayed by the CGM app, e.g. "mg/dL" or "mmol/L" (string)
+     */
+    public static final String COLUMN_UNIT = "unit";
+
+    public static final String[] COLUMNS = {COLUMN_TIME, COLUMN_VALUE, COLUMN_UNIT};
+
+    private HistoryContract() {
+    }
+}
@@ -0,0 +1,104 @@
+package linushdot.cgmband.provider;
+
+import android.database.AbstractWindowedCursor;
+import android.database.CursorWindow;
+
+import linushdot.cgmband.CgmReading;
+import linushdot.cgmband.SharedHistory;
+import linushdot.cgmband.history.HistoryStore;
+
+/***
+ * Cursor over a range of records of the {@link HistoryStore}.
+ *
+ * Rows are read from the mapped history file in blocks of {@link #BLOCK_ROWS} records, taking the
+ * lock of the store once per block, and written into a {@link CursorWindow}, which is shared memory
+ * when the cursor is read by another process, so no object is created per row. A window is filled
+ * with as many rows as fit, further windows are filled when the cursor moves past it.
+ *
+ * The cursor holds a reference to the {@link SharedHistory} until it is closed.
+ */
+class HistoryCursor extends AbstractWindowedCursor {
+
+    private static final int BLOCK_ROWS = 256;
+
+    private final HistoryStore store;
+
+    // packed readings of the current block
+    private final long[] readings = new long[BLOCK_ROWS];
+
+    // index of the first record
+    private final int start;
+
+    private final int count;
+
+    private boolean released;
+
+    /***
+     * @param store acquired history, released when the cursor is closed
+     * @param start index of the first record
+     * @param count number of records
+     */
+    HistoryCursor(HistoryStore store, int start, int count) {
+        this.store = store;
+        this.start = start;
+        this.count = count;
+    }
+
+    @Override
+    public int getCount() {
+        return count;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return HistoryContract.COLUMNS;
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        if(mWindow == null || newPosition < mWindow.getStartPosition() ||
+                newPosition >= mWindow.getStartPosition() + mWindow.getNumRows()) {
+            clearOrCreateWindow("history");
+            fillWindow(newPosition, mWindow);
+        }
+        return true;
+    }
+
+    @Override
+    public void fillWindow(int position, CursorWindow window) {
+        window.clear();
+        window.setStartPosition(position);
+        window.setNumColumns(HistoryContract.COLUMNS.length);
+        int row = position;
+        while(row < count) {
+            final int read = store.read(start + row, readings, Math.min(BLOCK_ROWS, count - row));
+            if(read == 0) {
+                return;
+            }
+            for(int i = 0; i < read; i++, row++) {
+                if(!window.allocRow()) {
+                    return; // window full
+                }
+                final long reading = readings[i];
+                if(!window.putLong(CgmReading.getTime(reading), row, 0) ||
+                        !window.putDouble(CgmReading.getValue(reading), row, 1) ||
+                        !window.putString(CgmReading.getUnit(reading).getName(), row, 2)) {
+                    window.freeLastRow();
+                    return;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        synchronized(this) {
+            if(released) {
+                return;
+            }
+            released = true;
+        }
+        SharedHistory.release();
+    }
+}
@@ -0,0 +1,90 @@
+package linushdot.cgmband.provider;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.UriMatcher;
+import android.database.Cursor;
+import android.net.Uri;
+
+import java.io.IOException;
+
+import linushdot.cgmband.SharedHistory;
+import linushdot.cgmband.history.HistoryStore;
+
+/***
+ * Read-only provider of the stored readings for other apps, see {@link HistoryContract}.
+ *
+ * The time range is looked up by binary search in the history ({@link HistoryStore#indexOf(long)}),
+ * the rows are handed over in {@link HistoryCursor} windows, so a day of readings is one query. The
+ * history is acquired without seeding the statistics and charts, which the provider does not use.
+ */
+public class HistoryProvider extends ContentProvider {
+
+    private static final int READINGS = 1;
+
+    private static final long DEFAULT_RANGE = 24 * 60 * 60 * 1000;
+
+    private final UriMatcher matcher = new UriMatcher(UriMatcher.NO_MATCH);
+
+    @Override
+    public boolean onCreate() {
+        matcher.addURI(HistoryContract.AUTHORITY, "readings", READINGS);
+        return true;
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder) {
+        if(matcher.match(uri) != READINGS) {
+            throw new IllegalArgumentException("Unknown URI " + uri);
+        }
+        final long to = getTime(uri, HistoryContract.PARAM_TO, Long.MAX_VALUE);
+        final long from = getTime(uri, HistoryContract.PARAM_FROM,
+                System.currentTimeMillis() - DEFAULT_RANGE);
+
+        final HistoryStore store;
+        try {
+            store = SharedHistory.acquireStore(getContext());
+        } catch(IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+        final int start = store.indexOf(from);
+        final int end = Math.max(start, store.indexOf(to));
+        final HistoryCursor cursor = new HistoryCursor(store, start, end - start);
+        cursor.setNotificationUri(getContext().getContentResolver(), HistoryContract.READINGS_URI);
+        return cursor;
+    }
+
+    private static long getTime(Uri uri, String param, long defaultTime) {
+        final String value = uri.getQueryParameter(param);
+        if(value == null) {
+            return defaultTime;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch(NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + param + ": " + value);
+        }
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        return matcher.match(uri) == READINGS ? HistoryContract.CONTENT_TYPE : null;
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        throw new UnsupportedOperationException("Read-only provider");
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("Read-only provider");
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("Read-only provider");
+    }
+}
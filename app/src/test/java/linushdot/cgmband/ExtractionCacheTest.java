@@ -0,0 +1,68 @@
+package linushdot.cgmband;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class ExtractionCacheTest {
+
+    private static final String KEY = "0|com.dexcom.g6|1|null|10123";
+
+    private static final long WHEN = 1600000000000L;
+
+    private static final int LAYOUT = 0x7f0b0042;
+
+    private static final int TEXT_HASH = 12345;
+
+    @Test
+    public void repeatedDeliveryOfSamePostIsHit() {
+        final ExtractionCache cache = new ExtractionCache(4);
+        final CgmValue value = new CgmValue(120, CgmUnit.MG_DL, WHEN);
+        cache.put(KEY, WHEN, WHEN + 1000, LAYOUT, TEXT_HASH, value);
+
+        final ExtractionCache.Entry entry = cache.get(KEY, WHEN, WHEN + 1000, LAYOUT, TEXT_HASH);
+        assertNotNull(entry);
+        assertEquals(value, entry.getValue());
+    }
+
+    @Test
+    public void repostWithDifferentValueIsNotHit() {
+        // the value is only in the actions of the content view, the repost has the same when,
+        // layout and extras but a new post time
+        final ExtractionCache cache = new ExtractionCache(4);
+        cache.put(KEY, WHEN, WHEN + 1000, LAYOUT, TEXT_HASH,
+                new CgmValue(120, CgmUnit.MG_DL, WHEN + 1000));
+
+        assertNull(cache.get(KEY, WHEN, WHEN + 301000, LAYOUT, TEXT_HASH));
+    }
+
+    @Test
+    public void negativeEntryDoesNotHideLaterValue() {
+        // warm-up notification without value, then the first reading in a repost
+        final ExtractionCache cache = new ExtractionCache(4);
+        cache.put(KEY, WHEN, WHEN + 1000, LAYOUT, TEXT_HASH, null);
+        final ExtractionCache.Entry warmup = cache.get(KEY, WHEN, WHEN + 1000, LAYOUT, TEXT_HASH);
+        assertNotNull(warmup);
+        assertNull(warmup.getValue());
+
+        assertNull(cache.get(KEY, WHEN, WHEN + 61000, LAYOUT, TEXT_HASH));
+        final CgmValue value = new CgmValue(98, CgmUnit.MG_DL, WHEN + 61000);
+        cache.put(KEY, WHEN, WHEN + 61000, LAYOUT, TEXT_HASH, value);
+        assertEquals(value, cache.get(KEY, WHEN, WHEN + 61000, LAYOUT, TEXT_HASH).getValue());
+    }
+
+    @Test
+    public void leastRecentlyUsedKeyIsEvicted() {
+        final ExtractionCache cache = new ExtractionCache(2);
+        cache.put("a", WHEN, WHEN, LAYOUT, TEXT_HASH, null);
+        cache.put("b", WHEN, WHEN, LAYOUT, TEXT_HASH, null);
+        assertNotNull(cache.get("a", WHEN, WHEN, LAYOUT, TEXT_HASH));
+        cache.put("c", WHEN, WHEN, LAYOUT, TEXT_HASH, null);
+
+        assertNotNull(cache.get("a", WHEN, WHEN, LAYOUT, TEXT_HASH));
+        assertNull(cache.get("b", WHEN, WHEN, LAYOUT, TEXT_HASH));
+        assertNotNull(cache.get("c", WHEN, WHEN, LAYOUT, TEXT_HASH));
+    }
+}
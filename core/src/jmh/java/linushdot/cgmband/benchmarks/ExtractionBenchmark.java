@@ -0,0 +1,128 @@
+package linushdot.cgmband.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.DataInputStream;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import linushdot.cgmband.CgmValue;
+import linushdot.cgmband.dexcomg6.DexcomTextParser;
+
+/***
+ * Parsing of the Dexcom notification text, comparing the parser with a reused matcher to the
+ * former approach of compiling the pattern for every notification.
+ *
+ * The extraction from the content view is measured on a {@link RemoteViewsFixture}, as the
+ * RemoteViews of the Android framework are not available on the JVM: the former walk looking up
+ * the actions field and writing every action to a parcel, against the walk with the fields
+ * resolved once and only setText actions read, as in the reflection plan of the extractor.
+ */
+@State(Scope.Thread)
+public class ExtractionBenchmark {
+
+    private final DexcomTextParser parser = new DexcomTextParser();
+
+    private final StringBuilder text = new StringBuilder("5.55 mmol/L");
+
+    private static final String REFLECTION_ACTION_CLASS =
+            RemoteViewsFixture.ReflectionAction.class.getName();
+
+    private final RemoteViewsFixture.Views views = RemoteViewsFixture.glance();
+
+    private final RemoteViewsFixture.Parcel parcel = new RemoteViewsFixture.Parcel();
+
+    private final StringBuilder textBuilder = new StringBuilder();
+
+    private final Field actionsField;
+
+    private final Field methodNameField;
+
+    private final Field valueField;
+
+    public ExtractionBenchmark() {
+        try {
+            actionsField = findField(RemoteViewsFixture.Views.class, "mActions");
+            methodNameField = findField(RemoteViewsFixture.ReflectionAction.class, "methodName");
+            valueField = findField(RemoteViewsFixture.ReflectionAction.class, "value");
+        } catch(NoSuchFieldException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Benchmark
+    public CgmValue parse() {
+        return parser.parse(text, Trace.START);
+    }
+
+    @Benchmark
+    public CgmValue parseCompilingPattern() {
+        final Matcher matcher = Pattern.compile("([0-9.]+) ([A-z/]+)").matcher(text.toString().trim());
+        if(!matcher.matches()) {
+            return null;
+        }
+        return new CgmValue(Float.parseFloat(matcher.group(1)), matcher.group(2), Trace.START);
+    }
+
+    @Benchmark
+    public CgmValue extractWithReflectionPlan() throws Exception {
+        final StringBuilder sb = textBuilder;
+        sb.setLength(0);
+        final ArrayList<?> actions = (ArrayList<?>) actionsField.get(views);
+        for(int i = 0; i < actions.size(); i++) {
+            final Object action = actions.get(i);
+            if(!REFLECTION_ACTION_CLASS.equals(action.getClass().getName()) ||
+                    !"setText".equals(methodNameField.get(action))) {
+                continue;
+            }
+            final Object value = valueField.get(action);
+            if(!(value instanceof CharSequence)) {
+                continue;
+            }
+            if(sb.length() > 0) {
+                sb.append(' ');
+            }
+            appendTrimmed(sb, (CharSequence) value);
+        }
+        return parser.parse(sb, Trace.START);
+    }
+
+    @Benchmark
+    public CgmValue extractWithParcels() throws Exception {
+        final StringBuilder sb = new StringBuilder();
+        final Field field = views.getClass().getDeclaredField("mActions");
+        field.setAccessible(true);
+        final ArrayList<?> actions = (ArrayList<?>) field.get(views);
+        for(Object action : actions) {
+            final DataInputStream in = parcel.write((RemoteViewsFixture.Action) action);
+            in.readInt(); // view ID
+            if("setText".equals(in.readUTF())) {
+                in.readInt(); // parameter type
+                final String t = in.readUTF().trim();
+                if(sb.length() > 0) {
+                    sb.append(" ");
+                }
+                sb.append(t);
+            }
+        }
+        return parser.parse(sb.toString().trim(), Trace.START);
+    }
+
+    private static Field findField(Class<?> cls, String name) throws NoSuchFieldException {
+        final Field field = cls.getDeclaredField(name);
+        field.setAccessible(true);
+        return field;
+    }
+
+    private static void appendTrimmed(StringBuilder sb, CharSequence t) {
+        int start = 0;
+        int end = t.length();
+        while(start < end && t.charAt(start) <= ' ') start++;
+        while(end > start && t.charAt(end - 1) <= ' ') end--;
+        sb.append(t, start, end);
+    }
+}
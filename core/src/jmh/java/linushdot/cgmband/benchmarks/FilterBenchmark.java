@@ -0,0 +1,33 @@
+package linushdot.cgmband.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import linushdot.cgmband.CgmValue;
+import linushdot.cgmband.filters.TimeOfDayFilter;
+import linushdot.cgmband.filters.TimeOfDaySchedule;
+
+/***
+ * Filtering of one notification by the time of day filter with a compiled weekly schedule.
+ */
+@State(Scope.Thread)
+public class FilterBenchmark {
+
+    private final TimeOfDaySchedule schedule =
+            TimeOfDaySchedule.parse("mon-fri 07:00-22:00; sat,sun 09:00-23:30");
+
+    private final TimeOfDayFilter filter = new TimeOfDayFilter(new TimeOfDaySchedule.Source() {
+        @Override
+        public TimeOfDaySchedule getSchedule() {
+            return schedule;
+        }
+    });
+
+    private final CgmValue value = new CgmValue(123, "mg/dL", Trace.START);
+
+    @Benchmark
+    public boolean timeOfDay() {
+        return filter.filter(value, "123 mg/dL");
+    }
+}
@@ -0,0 +1,33 @@
+package linushdot.cgmband.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import linushdot.cgmband.CgmValue;
+import linushdot.cgmband.processors.RelativeDeltaProcessor;
+
+/***
+ * Formatting of the band notification text. The processor is configured to generate a
+ * notification for every reading, so each operation formats one message.
+ */
+@State(Scope.Thread)
+public class FormattingBenchmark {
+
+    @Param({"mg/dL", "mmol/L"})
+    public String unit;
+
+    private final Trace trace = new Trace(1000);
+
+    private final RelativeDeltaProcessor processor = new RelativeDeltaProcessor(0, 0, 0);
+
+    private long index;
+
+    @Benchmark
+    public String relativeDeltaText() {
+        final long i = index++;
+        final float value = "mg/dL".equals(unit) ? trace.value(i) : trace.value(i) / 18f;
+        return processor.process(new CgmValue(value, unit, Trace.time(i)));
+    }
+}
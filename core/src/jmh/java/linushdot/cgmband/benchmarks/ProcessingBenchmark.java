@@ -0,0 +1,113 @@
+package linushdot.cgmband.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import linushdot.cgmband.CgmValue;
+import linushdot.cgmband.CgmValueProcessor;
+import linushdot.cgmband.NotificationFilter;
+import linushdot.cgmband.ReadingBuffer;
+import linushdot.cgmband.Urgency;
+import linushdot.cgmband.pipeline.Pipeline;
+import linushdot.cgmband.pipeline.StageFactory;
+import linushdot.cgmband.processors.PredictiveAlertProcessor;
+import linushdot.cgmband.processors.RelativeDeltaProcessor;
+import linushdot.cgmband.processors.TrendProcessor;
+
+/***
+ * Processing of one new reading by each processor and by a pipeline with a rule for each of them.
+ * Every operation creates one {@link CgmValue}, which is part of the reported allocation.
+ */
+@State(Scope.Thread)
+public class ProcessingBenchmark {
+
+    private static final String RULES =
+            "relative_delta > time_of_day\n" +
+            "trend > time_of_day\n" +
+            "predictive_alert";
+
+    private final Trace trace = new Trace(1000);
+
+    private ReadingBuffer readings;
+
+    private RelativeDeltaProcessor relativeDelta;
+
+    private TrendProcessor trend;
+
+    private PredictiveAlertProcessor predictiveAlert;
+
+    private Pipeline pipeline;
+
+    private long index;
+
+    private int notifications;
+
+    private final Pipeline.Output output = new Pipeline.Output() {
+        @Override
+        public void output(String rule, CgmValue value, String notification, Urgency urgency,
+                           boolean filtered) {
+            notifications++;
+        }
+    };
+
+    @Setup
+    public void setup() {
+        readings = new ReadingBuffer(288);
+        relativeDelta = new RelativeDeltaProcessor();
+        trend = new TrendProcessor(readings);
+        predictiveAlert = new PredictiveAlertProcessor(readings);
+        pipeline = Pipeline.compile(RULES, new StageFactory() {
+            @Override
+            public CgmValueProcessor createProcessor(String name, String[] args) {
+                switch(name) {
+                    case "relative_delta":
+                        return new RelativeDeltaProcessor();
+                    case "trend":
+                        return new TrendProcessor(readings);
+                    default:
+                        return new PredictiveAlertProcessor(readings);
+                }
+            }
+
+            @Override
+            public NotificationFilter createFilter(String name, String[] args) {
+                return new NotificationFilter() {
+                    @Override
+                    public boolean filter(CgmValue value, String notification) {
+                        return false;
+                    }
+                };
+            }
+        }, null);
+    }
+
+    private CgmValue next() {
+        final long i = index++;
+        final CgmValue value = new CgmValue(trace.value(i), "mg/dL", Trace.time(i));
+        readings.add(value.getTime(), value.getValue(), value.getUnitType());
+        return value;
+    }
+
+    @Benchmark
+    public String relativeDelta() {
+        return relativeDelta.process(next());
+    }
+
+    @Benchmark
+    public String trend() {
+        return trend.process(next());
+    }
+
+    @Benchmark
+    public String predictiveAlert() {
+        return predictiveAlert.process(next());
+    }
+
+    @Benchmark
+    public int pipeline() {
+        pipeline.process(next(), output);
+        return notifications;
+    }
+}
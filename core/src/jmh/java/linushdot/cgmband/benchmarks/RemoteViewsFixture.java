@@ -0,0 +1,121 @@
+package linushdot.cgmband.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/***
+ * Plain JVM stand-in for the content view of a Dexcom G6 notification, for benchmarking the
+ * reflection walk of the extractor without the Android framework.
+ *
+ * {@link Views} mirrors RemoteViews with its private "mActions" list, {@link ReflectionAction}
+ * mirrors RemoteViews$ReflectionAction with private "methodName" and "value" fields. Actions are
+ * written to a data stream the way they are written to a Parcel (view ID, method name, parameter
+ * type, value), standing in for the Parcel round trip of the former extraction.
+ */
+final class RemoteViewsFixture {
+
+    // parameter types of RemoteViews$ReflectionAction
+    static final int INT = 4;
+    static final int CHAR_SEQUENCE = 10;
+
+    private RemoteViewsFixture() {
+    }
+
+    /***
+     * @return views with the actions of a glance notification showing "5.5 mmol/L"
+     */
+    static Views glance() {
+        final Views views = new Views();
+        views.mActions.add(new OtherAction(1));
+        views.mActions.add(new ReflectionAction(2, "setImageResource", INT, 0x7f080061));
+        views.mActions.add(new ReflectionAction(3, "setText", CHAR_SEQUENCE, " 5.5"));
+        views.mActions.add(new ReflectionAction(4, "setText", CHAR_SEQUENCE, "mmol/L "));
+        views.mActions.add(new ReflectionAction(3, "setTextColor", INT, 0xff000000));
+        views.mActions.add(new ReflectionAction(4, "setTextColor", INT, 0xff000000));
+        views.mActions.add(new OtherAction(5));
+        views.mActions.add(new ReflectionAction(6, "setVisibility", INT, 0));
+        return views;
+    }
+
+    static class Views {
+
+        private final ArrayList<Action> mActions = new ArrayList<>();
+    }
+
+    /***
+     * Counterpart of a parcelable action.
+     */
+    abstract static class Action {
+
+        abstract void writeTo(DataOutputStream out) throws IOException;
+    }
+
+    static final class ReflectionAction extends Action {
+
+        private final int viewId;
+
+        private final String methodName;
+
+        private final int type;
+
+        private final Object value;
+
+        ReflectionAction(int viewId, String methodName, int type, Object value) {
+            this.viewId = viewId;
+            this.methodName = methodName;
+            this.type = type;
+            this.value = value;
+        }
+
+        @Override
+        void writeTo(DataOutputStream out) throws IOException {
+            out.writeInt(viewId);
+            out.writeUTF(methodName);
+            out.writeInt(type);
+            if(type == CHAR_SEQUENCE) {
+                out.writeUTF(value.toString());
+            } else {
+                out.writeInt((Integer) value);
+            }
+        }
+    }
+
+    /***
+     * Action of another class, e.g. a click handler.
+     */
+    static final class OtherAction extends Action {
+
+        private final int viewId;
+
+        OtherAction(int viewId) {
+            this.viewId = viewId;
+        }
+
+        @Override
+        void writeTo(DataOutputStream out) throws IOException {
+            out.writeInt(viewId);
+            out.writeInt(0);
+            out.writeLong(0);
+        }
+    }
+
+    /***
+     * Counterpart of an obtained Parcel: the action is written and read back from the start.
+     */
+    static final class Parcel {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+
+        private final DataOutputStream out = new DataOutputStream(bytes);
+
+        DataInputStream write(Action action) throws IOException {
+            bytes.reset();
+            action.writeTo(out);
+            return new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        }
+    }
+}
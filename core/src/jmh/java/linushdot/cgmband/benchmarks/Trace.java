@@ -0,0 +1,32 @@
+package linushdot.cgmband.benchmarks;
+
+import java.util.Random;
+
+/***
+ * Synthetic CGM trace for the benchmarks: 5 minute readings following a slow sine wave with some
+ * noise, in mg/dL.
+ */
+final class Trace {
+
+    static final long START = 1_600_000_000_000L;
+
+    static final long INTERVAL = 5 * 60 * 1000;
+
+    private final float[] values;
+
+    Trace(int length) {
+        values = new float[length];
+        final Random random = new Random(42);
+        for(int i = 0; i < length; i++) {
+            values[i] = (float) Math.round(140 + 60 * Math.sin(i / 20.0) + random.nextGaussian() * 4);
+        }
+    }
+
+    float value(long index) {
+        return values[(int) (index % values.length)];
+    }
+
+    static long time(long index) {
+        return START + index * INTERVAL;
+    }
+}
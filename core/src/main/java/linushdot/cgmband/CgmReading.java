@@ -0,0 +1,144 @@
+package linushdot.cgmband;
+
+/***
+ * Compact CGM reading packed into a long, for primitive arrays of readings.
+ *
+ * Layout (most significant bits first):
+ * - time in ms since epoch (44 bits, 0 until {@link #MAX_TIME}, in the year 2527)
+ * - unit code (2 bits, see {@link CgmUnit})
+ * - value in hundredths of the unit (18 bits, 0 until {@link #MAX_FIXED_VALUE}, i.e. 2621.43)
+ *
+ * Values are rounded to hundredths, the precision of all known CGM apps. Readings outside of the
+ * ranges cannot be packed: {@link #pack} throws, {@link #fits} tells whether a reading can be
+ * packed. All fields are unsigned, so the packed readings sort by time.
+ */
+public final class CgmReading {
+
+    public static final int VALUE_BITS = 18;
+
+    public static final int UNIT_BITS = 2;
+
+    private static final int TIME_SHIFT = UNIT_BITS + VALUE_BITS;
+
+    /***
+     * Latest time that can be packed.
+     */
+    public static final long MAX_TIME = (1L << (64 - TIME_SHIFT)) - 1;
+
+    /***
+     * Fixed-point scale of the values.
+     */
+    public static final int SCALE = 100;
+
+    /***
+     * Largest value in hundredths that can be packed.
+     */
+    public static final int MAX_FIXED_VALUE = (1 << VALUE_BITS) - 1;
+
+    private static final double INVERSE_SCALE = 1.0 / SCALE;
+
+    // largest value that is rounded to at most MAX_FIXED_VALUE
+    private static final double MAX_VALUE = (MAX_FIXED_VALUE + 0.5) * INVERSE_SCALE;
+
+    private static final int UNIT_MASK = (1 << UNIT_BITS) - 1;
+
+    private CgmReading() {
+    }
+
+    /***
+     * @param time time in ms since epoch
+     * @param value value in the unit
+     * @return true if the reading can be packed
+     */
+    public static boolean fits(long time, float value) {
+        return time >= 0 && time <= MAX_TIME && value >= 0 && value < MAX_VALUE;
+    }
+
+    /***
+     * Packs a reading
+     * @param time time in ms since epoch, 0 until {@link #MAX_TIME}
+     * @param fixedValue value in hundredths of the unit, 0 until {@link #MAX_FIXED_VALUE}
+     * @param unit unit
+     * @return packed reading
+     * @throws IllegalArgumentException if the time or the value is out of range
+     */
+    public static long pack(long time, int fixedValue, CgmUnit unit) {
+        if(time < 0 || time > MAX_TIME) {
+            throw new IllegalArgumentException("Time out of range: " + time);
+        }
+        if(fixedValue < 0 || fixedValue > MAX_FIXED_VALUE) {
+            throw new IllegalArgumentException("Value out of range: " + fixedValue);
+        }
+        return time << TIME_SHIFT | (long) unit.getCode() << VALUE_BITS | fixedValue;
+    }
+
+    /***
+     * Packs a reading, rounding the value to hundredths
+     * @param time time in ms since epoch, 0 until {@link #MAX_TIME}
+     * @param value value in the unit, 0 until 2621.43
+     * @param unit unit
+     * @return packed reading
+     * @throws IllegalArgumentException if the time or the value is out of range (see {@link #fits})
+     */
+    public static long pack(long time, float value, CgmUnit unit) {
+        if(!fits(time, value)) {
+            throw new IllegalArgumentException("Reading out of range: " + value + " at " + time);
+        }
+        return pack(time, toFixed(value), unit);
+    }
+
+    /***
+     * @param value CGM value
+     * @return packed reading
+     * @throws IllegalArgumentException if the time or the value is out of range (see {@link #fits})
+     */
+    public static long pack(CgmValue value) {
+        return pack(value.getTime(), value.getValue(), value.getUnitType());
+    }
+
+    public static long getTime(long reading) {
+        return reading >>> TIME_SHIFT;
+    }
+
+    public static CgmUnit getUnit(long reading) {
+        return CgmUnit.fromCode((int) (reading >>> VALUE_BITS) & UNIT_MASK);
+    }
+
+    /***
+     * @return value in hundredths of the unit
+     */
+    public static int getFixedValue(long reading) {
+        return (int) reading & MAX_FIXED_VALUE;
+    }
+
+    public static float getValue(long reading) {
+        return toFloat(getFixedValue(reading));
+    }
+
+    /***
+     * @return value in hundredths of mg/dL
+     */
+    public static int getFixedMgdl(long reading) {
+        return getUnit(reading).toMgdlFixed(getFixedValue(reading));
+    }
+
+    public static CgmValue toValue(long reading) {
+        return new CgmValue(getValue(reading), getUnit(reading), getTime(reading));
+    }
+
+    /***
+     * @param value value
+     * @return value rounded to hundredths, not range checked
+     */
+    public static int toFixed(float value) {
+        return (int) Math.round(value * (double) SCALE);
+    }
+
+    /***
+     * @param fixed value in hundredths
+     * @return value
+     */
+    public static float toFloat(int fixed) {
+        return (float) (fixed * INVERSE_SCALE);
+    }
+}
@@ -0,0 +1,135 @@
+package linushdot.cgmband;
+
+/***
+ * Units of CGM values with their codes (as stored in the history) and conversion to the canonical
+ * unit mg/dL.
+ *
+ * The conversion factors are computed once, converting a value is a multiplication. Fixed-point
+ * values (see {@link CgmReading}) are converted with a multiplication and a shift.
+ */
+public enum CgmUnit {
+
+    UNKNOWN(0, "", 1),
+    MG_DL(1, "mg/dL", 1),
+    MMOL_L(2, "mmol/L", 18.0182);
+
+    /***
+     * mg/dL per mmol/L of glucose.
+     */
+    public static final double MMOL_L_TO_MG_DL = 18.0182;
+
+    private static final int FIXED_SHIFT = 32;
+
+    private static final CgmUnit[] BY_CODE = values();
+
+    private final int code;
+
+    private final String name;
+
+    private final double toMgdl;
+
+    private final double fromMgdl;
+
+    // toMgdl and fromMgdl scaled by 2^FIXED_SHIFT, fromMgdlFixed is at most 2^FIXED_SHIFT
+    private final long toMgdlFixed;
+
+    private final long fromMgdlFixed;
+
+    // largest fixed-point value whose product with toMgdlFixed and result fit
+    private final int maxToMgdlFixed;
+
+    CgmUnit(int code, String name, double toMgdl) {
+        this.code = code;
+        this.name = name;
+        this.toMgdl = toMgdl;
+        this.fromMgdl = 1 / toMgdl;
+        this.toMgdlFixed = Math.round(Math.scalb(toMgdl, FIXED_SHIFT));
+        this.fromMgdlFixed = Math.round(Math.scalb(fromMgdl, FIXED_SHIFT));
+        this.maxToMgdlFixed = (int) Math.min(Integer.MAX_VALUE,
+                (Long.MAX_VALUE - (1L << (FIXED_SHIFT - 1))) / toMgdlFixed);
+    }
+
+    /***
+     * @return code of the unit, stored in the history
+     */
+    public int getCode() {
+        return code;
+    }
+
+    /***
+     * @return unit as displayed by the CGM apps, empty if unknown
+     */
+    public String getName() {
+        return name;
+    }
+
+    /***
+     * Converts a value to mg/dL, values of unknown units are returned unchanged
+     * @param value value in this unit
+     * @return value in mg/dL
+     */
+    public double toMgdl(double value) {
+        return value * toMgdl;
+    }
+
+    /***
+     * Converts a value from mg/dL to this unit
+     * @param mgdl value in mg/dL
+     * @return value in this unit
+     */
+    public double fromMgdl(double mgdl) {
+        return mgdl * fromMgdl;
+    }
+
+    /***
+     * Converts a fixed-point value to mg/dL, keeping the scale (e.g. hundredths)
+     * @param fixed fixed-point value in this unit, at most {@link Integer#MAX_VALUE} / 18.0182 for
+     *              mmol/L, so the result fits in an int
+     * @return fixed-point value in mg/dL, rounded to the nearest
+     * @throws ArithmeticException if the result does not fit in an int
+     */
+    public int toMgdlFixed(int fixed) {
+        if(fixed > maxToMgdlFixed || fixed < -maxToMgdlFixed) {
+            throw new ArithmeticException("Fixed-point value overflows in mg/dL: " + fixed);
+        }
+        return (int) ((fixed * toMgdlFixed + (1L << (FIXED_SHIFT - 1))) >> FIXED_SHIFT);
+    }
+
+    /***
+     * Converts a fixed-point value from mg/dL to this unit, keeping the scale. The factor is at
+     * most 1, so the conversion cannot overflow.
+     * @param fixedMgdl fixed-point value in mg/dL
+     * @return fixed-point value in this unit, rounded to the nearest (values within the precision of
+     * the factor of a tie may round either way)
+     */
+    public int fromMgdlFixed(int fixedMgdl) {
+        return (int) ((fixedMgdl * fromMgdlFixed + (1L << (FIXED_SHIFT - 1))) >> FIXED_SHIFT);
+    }
+
+    /***
+     * @param code unit code
+     * @return unit of the code, {@link #UNKNOWN} if not known
+     */
+    public static CgmUnit fromCode(int code) {
+        return code > 0 && code < BY_CODE.length ? BY_CODE[code] : UNKNOWN;
+    }
+
+    /***
+     * Maps a unit string to its unit, ignoring case
+     * @param name unit as displayed by the CGM app
+     * @return unit, {@link #UNKNOWN} if not known
+     */
+    public static CgmUnit fromName(String name) {
+        if(name == null) {
+            return UNKNOWN;
+        }
+        switch(name.length()) {
+            case 5:
+                return MG_DL.name.equalsIgnoreCase(name) ? MG_DL : UNKNOWN;
+            case 6:
+                return MMOL_L.name.equalsIgnoreCase(name) ? MMOL_L : UNKNOWN;
+            default:
+                return UNKNOWN;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package linushdot.cgmband;
+
+/***
+ * CGM value extracted from a notification.
+ *
+ * Values can be tagged with the ID of their source (e.g. the app and notification they were read
+ * from), so values of several sensors can be processed independently.
+ */
+public class CgmValue {
+
+    private final float value;
+
+    private final CgmUnit unitType;
+
+    // display name of the unit, as given for unknown units
+    private final String unit;
+
+    private final long time;
+
+    // ID of the source, null if not tagged
+    private final String source;
+
+    public float getValue() {
+        return value;
+    }
+
+    public String getUnit() {
+        return unit;
+    }
+
+    public CgmUnit getUnitType() {
+        return unitType;
+    }
+
+    /***
+     * @return value in mg/dL, unchanged for unknown units
+     */
+    public double getMgdl() {
+        return unitType.toMgdl(value);
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    /***
+     * @return ID of the source, null if the value is not tagged
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /***
+     * @param source ID of the source
+     * @return copy of this value tagged with the source
+     */
+    public CgmValue withSource(String source) {
+        return new CgmValue(value, unitType, unit, time, source);
+    }
+
+    public CgmValue(float value, String unit, long time) {
+        this.value = value;
+        this.unitType = CgmUnit.fromName(unit);
+        this.unit = unitType == CgmUnit.UNKNOWN ? unit : unitType.getName();
+        this.time = time;
+        this.source = null;
+    }
+
+    public CgmValue(float value, CgmUnit unit, long time) {
+        this(value, unit, unit.getName(), time, null);
+    }
+
+    private CgmValue(float value, CgmUnit unitType, String unit, long time, String source) {
+        this.value = value;
+        this.unitType = unitType;
+        this.unit = unit;
+        this.time = time;
+        this.source = source;
+    }
+}
@@ -0,0 +1,55 @@
+package linushdot.cgmband;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/***
+ * Value processors are supplied with {@link CgmValue}s after they are extracted. The processor
+ * returns a string with a message, if a notification should be displayed.
+ *
+ * Processors that need recent readings get the shared {@link ReadingBuffer} in their constructor,
+ * new readings are already added to it when {@link #process(CgmValue)} is called (reposts of the
+ * newest reading are not).
+ *
+ * Processors with state that cannot be rebuilt from the recent readings (e.g. the last notification
+ * sent) save it with {@link #saveState(DataOutput)}, so it survives restarts of the service.
+ *
+ * The {@link Urgency} of a notification decides how it is rate limited before it is sent to the
+ * band.
+ */
+public interface CgmValueProcessor {
+
+    /**
+     * Handles a series of CGM values, returns a notification for the band if necessary
+     * @param value CGM value
+     * @return Notification text to send, null otherwise
+     */
+    String process(CgmValue value);
+
+    /***
+     * @return urgency of the notification last returned by {@link #process(CgmValue)}
+     */
+    default Urgency getUrgency() {
+        return Urgency.ROUTINE;
+    }
+
+    /***
+     * Writes the state of the processor in a compact binary form. Stateless processors write
+     * nothing.
+     * @param out output to write to
+     * @throws IOException if writing fails
+     */
+    default void saveState(DataOutput out) throws IOException {
+    }
+
+    /***
+     * Restores the state written by {@link #saveState(DataOutput)}, called before the first value
+     * is processed.
+     * @param in input to read from
+     * @throws IOException if reading fails, the processor keeps its initial state then
+     */
+    default void restoreState(DataInput in) throws IOException {
+    }
+
+}
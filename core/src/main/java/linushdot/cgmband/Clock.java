@@ -0,0 +1,36 @@
+package linushdot.cgmband;
+
+import java.util.TimeZone;
+
+/***
+ * Source of the current time for processors and filters, so they can be run with a simulated
+ * clock.
+ */
+public interface Clock {
+
+    /***
+     * Clock returning the system time and default time zone.
+     */
+    Clock SYSTEM = new Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public TimeZone getTimeZone() {
+            return TimeZone.getDefault();
+        }
+    };
+
+    /***
+     * @return current time in ms since epoch
+     */
+    long currentTimeMillis();
+
+    /***
+     * @return time zone for local times of day
+     */
+    TimeZone getTimeZone();
+
+}
@@ -0,0 +1,177 @@
+package linushdot.cgmband;
+
+/***
+ * Fixed-capacity ring buffer of the most recent readings, stored as packed {@link CgmReading}s in
+ * one primitive array (8 bytes per reading, values rounded to hundredths).
+ *
+ * Readings are addressed by their lookback: 0 is the newest reading, {@link #size()} - 1 the oldest
+ * one still kept. Window queries take a start time and cover all readings at or after it. None of
+ * the methods allocate.
+ *
+ * The buffer is shared by all processors and filled before they are called. It is not
+ * thread-safe and only used from the thread handling the notifications.
+ */
+public class ReadingBuffer {
+
+    private final long[] readings;
+
+    // index of the newest reading
+    private int head = -1;
+
+    private int size = 0;
+
+    /***
+     * Creates a new buffer
+     * @param capacity maximum number of readings kept
+     */
+    public ReadingBuffer(int capacity) {
+        this.readings = new long[capacity];
+    }
+
+    /***
+     * Adds a reading, overwriting the oldest one if the buffer is full.
+     * @param time time in ms since epoch
+     * @param value CGM value
+     * @param unit unit of the value
+     * @return true if added, false if the time is not after the newest reading or the reading cannot
+     * be packed (see {@link CgmReading#fits})
+     */
+    public boolean add(long time, float value, CgmUnit unit) {
+        if(size > 0 && time <= CgmReading.getTime(readings[head])) {
+            return false;
+        }
+        if(!CgmReading.fits(time, value)) {
+            return false;
+        }
+        head = (head + 1) % readings.length;
+        readings[head] = CgmReading.pack(time, value, unit);
+        if(size < readings.length) {
+            size++;
+        }
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return readings.length;
+    }
+
+    public void clear() {
+        head = -1;
+        size = 0;
+    }
+
+    /***
+     * @param lookback 0 for the newest reading, 1 for the one before, ...
+     * @return time of the reading in ms since epoch
+     */
+    public long getTime(int lookback) {
+        return CgmReading.getTime(readings[index(lookback)]);
+    }
+
+    /***
+     * @param lookback 0 for the newest reading, 1 for the one before, ...
+     * @return value of the reading
+     */
+    public float getValue(int lookback) {
+        return CgmReading.getValue(readings[index(lookback)]);
+    }
+
+    /***
+     * @param lookback 0 for the newest reading, 1 for the one before, ...
+     * @return unit of the reading
+     */
+    public CgmUnit getUnit(int lookback) {
+        return CgmReading.getUnit(readings[index(lookback)]);
+    }
+
+    /***
+     * @param lookback 0 for the newest reading, 1 for the one before, ...
+     * @return packed reading, see {@link CgmReading}
+     */
+    public long getReading(int lookback) {
+        return readings[index(lookback)];
+    }
+
+    /***
+     * Counts the readings in a window (binary search).
+     * @param from start time of the window in ms since epoch (inclusive)
+     * @return number of readings with a time >= from, which are the lookbacks 0 until count - 1
+     */
+    public int countSince(long from) {
+        // readings are sorted by time, search for the first lookback before the window
+        int low = 0;
+        int high = size;
+        while(low < high) {
+            final int mid = (low + high) >>> 1;
+            if(CgmReading.getTime(readings[index(mid)]) >= from) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /***
+     * @param from start time of the window in ms since epoch (inclusive)
+     * @return smallest value in the window, NaN if the window is empty
+     */
+    public float minSince(long from) {
+        final int count = countSince(from);
+        if(count == 0) {
+            return Float.NaN;
+        }
+        int min = Integer.MAX_VALUE;
+        for(int i = 0; i < count; i++) {
+            min = Math.min(min, CgmReading.getFixedValue(readings[index(i)]));
+        }
+        return CgmReading.toFloat(min);
+    }
+
+    /***
+     * @param from start time of the window in ms since epoch (inclusive)
+     * @return largest value in the window, NaN if the window is empty
+     */
+    public float maxSince(long from) {
+        final int count = countSince(from);
+        if(count == 0) {
+            return Float.NaN;
+        }
+        int max = 0;
+        for(int i = 0; i < count; i++) {
+            max = Math.max(max, CgmReading.getFixedValue(readings[index(i)]));
+        }
+        return CgmReading.toFloat(max);
+    }
+
+    /***
+     * @param from start time of the window in ms since epoch (inclusive)
+     * @return average value in the window, NaN if the window is empty
+     */
+    public double averageSince(long from) {
+        final int count = countSince(from);
+        if(count == 0) {
+            return Double.NaN;
+        }
+        long sum = 0;
+        for(int i = 0; i < count; i++) {
+            sum += CgmReading.getFixedValue(readings[index(i)]);
+        }
+        return (double) sum / count / CgmReading.SCALE;
+    }
+
+    private int index(int lookback) {
+        if(lookback < 0 || lookback >= size) {
+            throw new IndexOutOfBoundsException("Lookback " + lookback + ", size " + size);
+        }
+        int index = head - lookback;
+        if(index < 0) {
+            index += readings.length;
+        }
+        return index;
+    }
+}
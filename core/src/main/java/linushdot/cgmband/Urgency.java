@@ -0,0 +1,24 @@
+package linushdot.cgmband;
+
+/***
+ * Urgency class of a band notification, used to limit how often the band is woken up.
+ */
+public enum Urgency {
+
+    /***
+     * Regular value updates, limited and coalesced.
+     */
+    ROUTINE,
+
+    /***
+     * Changes worth noticing (trend changes, predicted highs), limited separately from the routine
+     * updates.
+     */
+    ELEVATED,
+
+    /***
+     * Alerts that must not be delayed (predicted lows), never limited.
+     */
+    URGENT
+
+}
@@ -0,0 +1,56 @@
+package linushdot.cgmband.chart;
+
+import linushdot.cgmband.CgmUnit;
+
+/***
+ * Downsampled series of the history for the zoom levels of the chart: the last day, 7 and 90 days.
+ *
+ * Each level is an {@link LttbSeries} in mg/dL with a fixed number of points, enough for the width
+ * of a phone screen. The series are seeded once from the history and updated with each new reading,
+ * so drawing a level never reads the history.
+ */
+public class ChartCache {
+
+    public static final int DAY = 0;
+    public static final int WEEK = 1;
+    public static final int QUARTER = 2;
+
+    /***
+     * Time spans of the levels in days.
+     */
+    public static final int[] SPAN_DAYS = {1, 7, 90};
+
+    /***
+     * Points per level.
+     */
+    public static final int POINTS = 1024;
+
+    private final LttbSeries[] levels = new LttbSeries[SPAN_DAYS.length];
+
+    public ChartCache() {
+        for(int i = 0; i < levels.length; i++) {
+            levels[i] = new LttbSeries(SPAN_DAYS[i] * 24L * 60 * 60 * 1000, POINTS);
+        }
+    }
+
+    /***
+     * Adds a reading to all levels, readings have to be added in order of time
+     * @param time time in ms since epoch
+     * @param value value
+     * @param unitCode code of the unit, see {@link CgmUnit#getCode()}
+     */
+    public void add(long time, float value, int unitCode) {
+        final float mgdl = (float) CgmUnit.fromCode(unitCode).toMgdl(value);
+        for(LttbSeries level : levels) {
+            level.add(time, mgdl);
+        }
+    }
+
+    /***
+     * @param level one of {@link #DAY}, {@link #WEEK} or {@link #QUARTER}
+     * @return series of the level
+     */
+    public LttbSeries getLevel(int level) {
+        return levels[level];
+    }
+}
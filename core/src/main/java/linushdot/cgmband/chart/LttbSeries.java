@@ -0,0 +1,231 @@
+package linushdot.cgmband.chart;
+
+import java.util.Arrays;
+
+/***
+ * Downsampled series of the readings of a time span, built incrementally with
+ * Largest-Triangle-Three-Buckets (LTTB).
+ *
+ * The time axis is divided into buckets of fixed width aligned to the epoch, so a bucket never
+ * changes once a later bucket has readings. Of each bucket one reading is kept: the one forming the
+ * largest triangle with the reading kept of the previous bucket and the average of the next bucket.
+ * Only the readings of the last two buckets are kept in full, the pick of the previous bucket is
+ * final when the next bucket is complete. Adding a reading costs O(readings per bucket), reading
+ * the series O(buckets), independent of the number of readings in the span.
+ *
+ * Empty buckets (gaps in the readings) are skipped. Methods are synchronized, readings can be added
+ * on one thread while another reads the series.
+ */
+public class LttbSeries {
+
+    /***
+     * Points of a series.
+     */
+    public static final class Snapshot {
+
+        public final long[] times;
+
+        public final float[] values;
+
+        Snapshot(long[] times, float[] values) {
+            this.times = times;
+            this.values = values;
+        }
+
+        public int size() {
+            return times.length;
+        }
+    }
+
+    private final long span;
+
+    private final long bucketWidth;
+
+    // final picks in a ring, ordered by time
+    private final long[] pickTimes;
+    private final float[] pickValues;
+    private int pickStart;
+    private int pickCount;
+
+    // readings of the last two buckets, the previous one is picked when the current one is complete
+    private Points previous = new Points();
+    private Points current = new Points();
+    private long currentBucket = Long.MIN_VALUE;
+
+    private long lastTime = Long.MIN_VALUE;
+
+    /***
+     * Creates an empty series
+     * @param span time span of the series in ms
+     * @param buckets number of buckets (maximum number of points) in the span
+     */
+    public LttbSeries(long span, int buckets) {
+        this.span = span;
+        this.bucketWidth = Math.max(1, span / buckets);
+        this.pickTimes = new long[buckets + 1];
+        this.pickValues = new float[buckets + 1];
+    }
+
+    public long getSpan() {
+        return span;
+    }
+
+    /***
+     * Adds a reading
+     * @param time time of the reading in ms since epoch
+     * @param value value of the reading
+     * @return false if the reading is not after the last one and was ignored
+     */
+    public synchronized boolean add(long time, float value) {
+        if(time <= lastTime) {
+            return false;
+        }
+        final long bucket = Math.floorDiv(time, bucketWidth);
+        if(bucket != currentBucket) {
+            // the current bucket is complete, so the previous one can be picked
+            if(previous.size > 0) {
+                final int pick = pick(previous, current.averageTime(), current.averageValue());
+                addPick(previous.times[pick], previous.values[pick]);
+            }
+            final Points recycled = previous;
+            previous = current;
+            current = recycled;
+            current.clear();
+            currentBucket = bucket;
+        }
+        current.add(time, value);
+        lastTime = time;
+        return true;
+    }
+
+    /***
+     * Removes all readings.
+     */
+    public synchronized void clear() {
+        pickStart = 0;
+        pickCount = 0;
+        previous.clear();
+        current.clear();
+        currentBucket = Long.MIN_VALUE;
+        lastTime = Long.MIN_VALUE;
+    }
+
+    /***
+     * Returns the points from a time on: the final picks, the provisional pick of the previous
+     * bucket and the last reading.
+     * @param from start of the series in ms since epoch
+     * @return points ordered by time
+     */
+    public synchronized Snapshot snapshot(long from) {
+        final int max = pickCount + 2;
+        final long[] times = new long[max];
+        final float[] values = new float[max];
+        int n = 0;
+        for(int i = 0; i < pickCount; i++) {
+            final int index = (pickStart + i) % pickTimes.length;
+            if(pickTimes[index] >= from) {
+                times[n] = pickTimes[index];
+                values[n] = pickValues[index];
+                n++;
+            }
+        }
+        if(previous.size > 0) {
+            final int pick = pick(previous, current.averageTime(), current.averageValue());
+            if(previous.times[pick] >= from) {
+                times[n] = previous.times[pick];
+                values[n] = previous.values[pick];
+                n++;
+            }
+        }
+        if(current.size > 0 && lastTime >= from) {
+            times[n] = lastTime;
+            values[n] = current.values[current.size - 1];
+            n++;
+        }
+        return new Snapshot(Arrays.copyOf(times, n), Arrays.copyOf(values, n));
+    }
+
+    /***
+     * @return index of the reading of a bucket with the largest triangle between the last pick and
+     * the average of the next bucket, the first reading if there is no pick yet
+     */
+    private int pick(Points bucket, double nextTime, double nextValue) {
+        if(pickCount == 0) {
+            return 0;
+        }
+        final int last = (pickStart + pickCount - 1) % pickTimes.length;
+        final long aTime = pickTimes[last];
+        final double aValue = pickValues[last];
+
+        // times relative to the last pick, in minutes to keep the products small
+        final double cTime = (nextTime - aTime) / 60000.0;
+        final double cValue = nextValue - aValue;
+        int best = 0;
+        double bestArea = -1;
+        for(int i = 0; i < bucket.size; i++) {
+            final double bTime = (bucket.times[i] - aTime) / 60000.0;
+            final double bValue = bucket.values[i] - aValue;
+            final double area = Math.abs(bTime * cValue - cTime * bValue);
+            if(area > bestArea) {
+                bestArea = area;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private void addPick(long time, float value) {
+        // drop picks that left the span
+        while(pickCount > 0 && (pickCount == pickTimes.length ||
+                pickTimes[pickStart] < time - span - bucketWidth)) {
+            pickStart = (pickStart + 1) % pickTimes.length;
+            pickCount--;
+        }
+        final int index = (pickStart + pickCount) % pickTimes.length;
+        pickTimes[index] = time;
+        pickValues[index] = value;
+        pickCount++;
+    }
+
+    /***
+     * Growable list of the readings of a bucket.
+     */
+    private static final class Points {
+
+        long[] times = new long[16];
+
+        float[] values = new float[16];
+
+        int size;
+
+        double timeSum;
+
+        double valueSum;
+
+        void add(long time, float value) {
+            if(size == times.length) {
+                times = Arrays.copyOf(times, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            times[size] = time;
+            values[size] = value;
+            size++;
+            timeSum += time;
+            valueSum += value;
+        }
+
+        void clear() {
+            size = 0;
+            timeSum = 0;
+            valueSum = 0;
+        }
+
+        double averageTime() {
+            return timeSum / size;
+        }
+
+        double averageValue() {
+            return valueSum / size;
+        }
+    }
+}
@@ -0,0 +1,384 @@
+package linushdot.cgmband.delivery;
+
+import java.util.Locale;
+
+import linushdot.cgmband.Clock;
+import linushdot.cgmband.Urgency;
+
+/***
+ * Limits how often notifications are delivered to the band, every delivery wakes up the band and
+ * means a transfer over bluetooth.
+ *
+ * Each urgency class below {@link Urgency#URGENT} has a token bucket: a delivery takes a token, the
+ * tokens refill at a fixed rate up to the capacity of the bucket. Urgent notifications bypass the
+ * buckets and are always delivered at once. Routine notifications are additionally only delivered
+ * if the last delivery is at least the coalescing window ago.
+ *
+ * Schedulers of several sources can share a {@link SharedLimit}, which caps the routine and elevated
+ * deliveries of all of them together, so adding a source does not multiply the wakeups of the band.
+ *
+ * A notification that cannot be delivered yet is kept pending, a newer one replaces it (keeping the
+ * higher urgency), so only the newest is delivered. The pending notification remembers the rule it
+ * came from and the post time of the CGM notification it was generated for. The caller has to call
+ * {@link #flush()} at the time returned by {@link #offer(String, Urgency, String, long)}. Tokens are
+ * only taken if the target actually posted the notification.
+ *
+ * The methods are synchronized, so the state can be read from another thread.
+ */
+public class DeliveryScheduler {
+
+    public static final String KEY_DELIVERY_WINDOW = "delivery_window_mins";
+
+    public static final int DEFAULT_WINDOW_MINS = 5;
+
+    /***
+     * Longest coalescing window that can be configured.
+     */
+    public static final int MAX_WINDOW_MINS = 60;
+
+    /***
+     * Returned if no notification is pending.
+     */
+    public static final long NONE = -1;
+
+    // bucket capacity and deliveries per hour of the routine and elevated classes
+    private static final int ROUTINE_CAPACITY = 3;
+    private static final int ROUTINE_PER_HOUR = 6;
+    private static final int ELEVATED_CAPACITY = 3;
+    private static final int ELEVATED_PER_HOUR = 6;
+
+    /***
+     * Capacity and deliveries per hour of the default {@link SharedLimit}, the routine and elevated
+     * rates of one source together, so a single source is not limited further.
+     */
+    public static final int SHARED_CAPACITY = ROUTINE_CAPACITY + ELEVATED_CAPACITY;
+    public static final int SHARED_PER_HOUR = ROUTINE_PER_HOUR + ELEVATED_PER_HOUR;
+
+    private static final long HOUR = 60 * 60 * 1000;
+
+    /***
+     * Receives the notifications to deliver.
+     */
+    public interface Target {
+
+        /***
+         * Delivers a notification
+         * @param text notification text
+         * @param urgency urgency of the notification
+         * @param rule rule the notification came from
+         * @param postTime post time of the CGM notification it was generated for
+         * @return true if a notification was posted, false if it was not necessary (e.g. the same
+         * text is already displayed)
+         */
+        boolean deliver(String text, Urgency urgency, String rule, long postTime);
+
+    }
+
+    private final Clock clock;
+
+    private final Target target;
+
+    private final SharedLimit shared;
+
+    // bucket per urgency class, null for classes that are not limited
+    private final TokenBucket[] buckets = new TokenBucket[Urgency.values().length];
+
+    private long window;
+
+    private long lastDelivery = Long.MIN_VALUE;
+
+    private String pendingText;
+
+    private Urgency pendingUrgency;
+
+    private String pendingRule;
+
+    private long pendingPostTime;
+
+    private long delivered;
+
+    private long coalesced;
+
+    private long deferred;
+
+    /***
+     * Creates a new scheduler with the default buckets, not sharing a limit with other schedulers
+     * @param clock clock for the buckets and window
+     * @param target target receiving the notifications
+     * @param windowMins coalescing window of routine notifications in minutes
+     */
+    public DeliveryScheduler(Clock clock, Target target, long windowMins) {
+        this(clock, target, windowMins, null);
+    }
+
+    /***
+     * Creates a new scheduler with the default buckets
+     * @param clock clock for the buckets and window
+     * @param target target receiving the notifications
+     * @param windowMins coalescing window of routine notifications in minutes
+     * @param shared limit shared with the schedulers of other sources, null for none
+     */
+    public DeliveryScheduler(Clock clock, Target target, long windowMins, SharedLimit shared) {
+        this.clock = clock;
+        this.target = target;
+        this.shared = shared;
+        this.window = windowMins * 60 * 1000;
+        final long now = clock.currentTimeMillis();
+        buckets[Urgency.ROUTINE.ordinal()] = new TokenBucket(ROUTINE_CAPACITY,
+                HOUR / ROUTINE_PER_HOUR, now);
+        buckets[Urgency.ELEVATED.ordinal()] = new TokenBucket(ELEVATED_CAPACITY,
+                HOUR / ELEVATED_PER_HOUR, now);
+    }
+
+    /***
+     * @param windowMins coalescing window of routine notifications in minutes
+     */
+    public synchronized void setWindow(long windowMins) {
+        this.window = windowMins * 60 * 1000;
+    }
+
+    /***
+     * Delivers a notification now if allowed, otherwise keeps it pending.
+     * @param text notification text
+     * @param urgency urgency of the notification
+     * @param rule rule the notification came from, see {@link #cancel(String)}
+     * @param postTime post time of the CGM notification it was generated for
+     * @return time when {@link #flush()} has to be called, {@link #NONE} if nothing is pending
+     */
+    public synchronized long offer(String text, Urgency urgency, String rule, long postTime) {
+        if(urgency == Urgency.URGENT) {
+            cancel(); // older than the alert
+            deliver(text, urgency, rule, postTime, clock.currentTimeMillis());
+            return NONE;
+        }
+
+        if(pendingText != null) {
+            coalesced++;
+            if(pendingUrgency.compareTo(urgency) > 0) {
+                urgency = pendingUrgency;
+            }
+        }
+        pendingText = text;
+        pendingUrgency = urgency;
+        pendingRule = rule;
+        pendingPostTime = postTime;
+
+        final long due = flush();
+        if(due != NONE) {
+            deferred++;
+        }
+        return due;
+    }
+
+    /***
+     * Delivers the pending notification if it is due.
+     * @return time when this has to be called again, {@link #NONE} if nothing is pending
+     */
+    public synchronized long flush() {
+        if(pendingText == null) {
+            return NONE;
+        }
+        final long now = clock.currentTimeMillis();
+        long due = buckets[pendingUrgency.ordinal()].nextTokenTime(now);
+        if(pendingUrgency == Urgency.ROUTINE && lastDelivery != Long.MIN_VALUE) {
+            due = Math.max(due, lastDelivery + window);
+        }
+        if(shared != null) {
+            due = Math.max(due, shared.nextTokenTime(now));
+        }
+        if(due > now) {
+            return due;
+        }
+
+        final String text = pendingText;
+        final Urgency urgency = pendingUrgency;
+        final String rule = pendingRule;
+        final long postTime = pendingPostTime;
+        cancel();
+        deliver(text, urgency, rule, postTime, now);
+        return NONE;
+    }
+
+    /***
+     * Drops the pending notification, e.g. when the source is stopped.
+     */
+    public synchronized void cancel() {
+        pendingText = null;
+        pendingUrgency = null;
+        pendingRule = null;
+    }
+
+    /***
+     * Drops the pending notification if it came from a rule, e.g. when the notifications of the rule
+     * are filtered. A pending notification of another rule is kept.
+     * @param rule rule whose notification is dropped
+     * @return true if a pending notification was dropped
+     */
+    public synchronized boolean cancel(String rule) {
+        if(pendingText == null || !rule.equals(pendingRule)) {
+            return false;
+        }
+        cancel();
+        return true;
+    }
+
+    private void deliver(String text, Urgency urgency, String rule, long postTime, long now) {
+        if(!target.deliver(text, urgency, rule, postTime)) {
+            return;
+        }
+        final TokenBucket bucket = buckets[urgency.ordinal()];
+        if(bucket != null) {
+            bucket.take(now);
+            if(shared != null) {
+                shared.take(now);
+            }
+        }
+        lastDelivery = now;
+        delivered++;
+    }
+
+    /***
+     * Appends the state of the buckets and the counters in human readable form.
+     * @param sb builder to append to
+     */
+    public synchronized void appendSummary(StringBuilder sb) {
+        final long now = clock.currentTimeMillis();
+        for(Urgency urgency : Urgency.values()) {
+            final TokenBucket bucket = buckets[urgency.ordinal()];
+            if(bucket == null) {
+                continue;
+            }
+            bucket.refill(now);
+            sb.append(String.format(Locale.ROOT, "%-8s %d/%d tokens", urgency.name().toLowerCase(Locale.ROOT),
+                    bucket.tokens, bucket.capacity));
+            if(bucket.tokens < bucket.capacity) {
+                sb.append(String.format(Locale.ROOT, ", next in %d s",
+                        (bucket.lastRefill + bucket.interval - now + 999) / 1000));
+            }
+            sb.append('\n');
+        }
+        sb.append(String.format(Locale.ROOT, "window %d min, pending %s%n", window / 60000,
+                pendingUrgency != null ? pendingUrgency.name().toLowerCase(Locale.ROOT) : "none"));
+        sb.append("delivered=").append(delivered)
+                .append(" coalesced=").append(coalesced)
+                .append(" deferred=").append(deferred).append('\n');
+    }
+
+    /***
+     * @return state of the buckets and the counters in human readable form
+     */
+    public String getSummary() {
+        final StringBuilder sb = new StringBuilder();
+        appendSummary(sb);
+        return sb.toString();
+    }
+
+    /***
+     * Token bucket shared by the schedulers of several sources, limiting their routine and elevated
+     * deliveries together. Urgent deliveries bypass it. Thread-safe.
+     */
+    public static final class SharedLimit {
+
+        private final TokenBucket bucket;
+
+        private final Clock clock;
+
+        /***
+         * Creates a limit with {@link #SHARED_CAPACITY} and {@link #SHARED_PER_HOUR}
+         * @param clock clock for the bucket
+         */
+        public SharedLimit(Clock clock) {
+            this(clock, SHARED_CAPACITY, SHARED_PER_HOUR);
+        }
+
+        /***
+         * Creates a limit
+         * @param clock clock for the bucket
+         * @param capacity maximum number of deliveries in a burst
+         * @param perHour deliveries per hour
+         */
+        public SharedLimit(Clock clock, int capacity, int perHour) {
+            this.clock = clock;
+            this.bucket = new TokenBucket(capacity, HOUR / perHour, clock.currentTimeMillis());
+        }
+
+        synchronized long nextTokenTime(long now) {
+            return bucket.nextTokenTime(now);
+        }
+
+        synchronized void take(long now) {
+            bucket.take(now);
+        }
+
+        /***
+         * Appends the state of the bucket in human readable form.
+         * @param sb builder to append to
+         */
+        public synchronized void appendSummary(StringBuilder sb) {
+            final long now = clock.currentTimeMillis();
+            bucket.refill(now);
+            sb.append(String.format(Locale.ROOT, "shared   %d/%d tokens", bucket.tokens, bucket.capacity));
+            if(bucket.tokens < bucket.capacity) {
+                sb.append(String.format(Locale.ROOT, ", next in %d s",
+                        (bucket.lastRefill + bucket.interval - now + 999) / 1000));
+            }
+            sb.append('\n');
+        }
+    }
+
+    /***
+     * Token bucket with whole tokens, refilled lazily when it is used.
+     */
+    private static final class TokenBucket {
+
+        final int capacity;
+
+        // ms per token
+        final long interval;
+
+        int tokens;
+
+        // time the last token was added, or the bucket was last seen full
+        long lastRefill;
+
+        TokenBucket(int capacity, long interval, long now) {
+            this.capacity = capacity;
+            this.interval = interval;
+            this.tokens = capacity;
+            this.lastRefill = now;
+        }
+
+        void refill(long now) {
+            if(tokens >= capacity) {
+                lastRefill = now;
+                return;
+            }
+            final long added = (now - lastRefill) / interval;
+            if(added <= 0) {
+                return;
+            }
+            if(tokens + added >= capacity) {
+                tokens = capacity;
+                lastRefill = now;
+            } else {
+                tokens += (int) added;
+                lastRefill += added * interval;
+            }
+        }
+
+        /***
+         * @return now if a token is available, otherwise the time the next token is added
+         */
+        long nextTokenTime(long now) {
+            refill(now);
+            return tokens > 0 ? now : lastRefill + interval;
+        }
+
+        void take(long now) {
+            refill(now);
+            if(tokens > 0) {
+                tokens--;
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package linushdot.cgmband.dexcomg6;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import linushdot.cgmband.CgmValue;
+
+/***
+ * Parses the text of Dexcom notifications, which has the format "value unit" (e.g. "5.5 mmol/L").
+ *
+ * The pattern is compiled once, the matcher is reused between calls. Instances are not thread-safe.
+ */
+public class DexcomTextParser {
+
+    private static final Pattern VALUE_PATTERN = Pattern.compile("([0-9.]+) ([A-z/]+)");
+
+    private final Matcher valueMatcher = VALUE_PATTERN.matcher("");
+
+    /***
+     * Parses a text in the format "value unit"
+     * @param str text to parse
+     * @param time time of the value
+     * @return parsed value, null if the text does not match
+     */
+    public CgmValue parse(CharSequence str, long time) {
+        final Matcher matcher = valueMatcher.reset(str);
+        if(!matcher.matches()) {
+            return null;
+        }
+
+        try {
+            final float value = Float.parseFloat(matcher.group(1));
+            final String unit = matcher.group(2);
+
+            return new CgmValue(value, unit, time);
+
+        } catch(NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package linushdot.cgmband.filters;
+
+import linushdot.cgmband.CgmValue;
+import linushdot.cgmband.Clock;
+import linushdot.cgmband.NotificationFilter;
+
+/***
+ * Filter by time of day.
+ *
+ * Turns on/off notifications for certain times of the week. Defined by a {@link TimeOfDaySchedule},
+ * notifications are only displayed inside its windows. The check is a single bit lookup in the
+ * compiled schedule.
+ */
+public class TimeOfDayFilter implements NotificationFilter {
+
+    public static final String KEY_FILTER_START_HOUR   = "filter_start_hour";
+    public static final String KEY_FILTER_START_MINUTE = "filter_start_minute";
+
+    public static final String KEY_FILTER_END_HOUR     = "filter_end_hour";
+    public static final String KEY_FILTER_END_MINUTE   = "filter_end_minute";
+
+    public static final String KEY_FILTER_WINDOWS      = "filter_windows";
+
+    private final TimeOfDaySchedule.Source source;
+
+    private final Clock clock;
+
+    public TimeOfDayFilter(final TimeOfDaySchedule.Source source) {
+        this(source, Clock.SYSTEM);
+    }
+
+    public TimeOfDayFilter(final TimeOfDaySchedule.Source source, final Clock clock) {
+        this.source = source;
+        this.clock = clock;
+    }
+
+    @Override
+    public boolean filter(CgmValue value, String notification) {
+        final TimeOfDaySchedule schedule = source.getSchedule();
+        if(schedule.isEmpty()) {
+            return false;
+        }
+        return schedule.isQuiet(clock.currentTimeMillis(), clock.getTimeZone());
+    }
+}
@@ -0,0 +1,234 @@
+package linushdot.cgmband.filters;
+
+import java.util.Locale;
+import java.util.TimeZone;
+
+/***
+ * Compiled weekly schedule for the {@link TimeOfDayFilter}.
+ *
+ * The schedule is defined by windows in which notifications are displayed. It is stored as a bitmap
+ * with one bit per minute of the week (Monday 00:00 is minute 0), a set bit means the minute is
+ * outside all windows and notifications are filtered. A schedule without windows filters nothing.
+ *
+ * Windows can wrap past midnight (e.g. 22:00-06:00), the part after midnight belongs to the next
+ * day. A window with equal start and end covers the whole day.
+ */
+public final class TimeOfDaySchedule {
+
+    public static final int MINUTES_PER_DAY = 24 * 60;
+
+    public static final int MINUTES_PER_WEEK = 7 * MINUTES_PER_DAY;
+
+    private static final long MILLIS_PER_DAY = MINUTES_PER_DAY * 60 * 1000L;
+
+    private static final String[] DAYS = {"mon", "tue", "wed", "thu", "fri", "sat", "sun"};
+
+    /***
+     * Schedule without windows, filters nothing.
+     */
+    public static final TimeOfDaySchedule ALWAYS = new TimeOfDaySchedule(null, "");
+
+    /***
+     * Provides the current schedule.
+     */
+    public interface Source {
+
+        TimeOfDaySchedule getSchedule();
+
+    }
+
+    // bit set = minute is filtered, null if nothing is filtered
+    private final long[] quiet;
+
+    private final String description;
+
+    private TimeOfDaySchedule(long[] quiet, String description) {
+        this.quiet = quiet;
+        this.description = description;
+    }
+
+    /***
+     * @param minuteOfWeek minute of the week, 0 is Monday 00:00
+     * @return true if notifications are filtered at that minute
+     */
+    public boolean isQuiet(int minuteOfWeek) {
+        return quiet != null && (quiet[minuteOfWeek >>> 6] & (1L << minuteOfWeek)) != 0;
+    }
+
+    /***
+     * @param millis time in ms since epoch
+     * @param zone time zone of the schedule
+     * @return true if notifications are filtered at that time
+     */
+    public boolean isQuiet(long millis, TimeZone zone) {
+        return quiet != null && isQuiet(minuteOfWeek(millis, zone));
+    }
+
+    /***
+     * @return true if the schedule has no windows
+     */
+    public boolean isEmpty() {
+        return quiet == null;
+    }
+
+    /***
+     * @return windows of the schedule in the format accepted by {@link #parse(String)}, empty if
+     * there are none
+     */
+    public String getDescription() {
+        return description;
+    }
+
+    /***
+     * Calculates the minute of the week in a time zone.
+     * @param millis time in ms since epoch
+     * @param zone time zone
+     * @return minute of the week, 0 is Monday 00:00
+     */
+    public static int minuteOfWeek(long millis, TimeZone zone) {
+        final long local = millis + zone.getOffset(millis);
+        final long day = Math.floorDiv(local, MILLIS_PER_DAY);
+        final int dayOfWeek = (int) Math.floorMod(day + 3, 7L); // 1970-01-01 was a Thursday
+        final int minuteOfDay = (int) (Math.floorMod(local, MILLIS_PER_DAY) / 60000);
+        return dayOfWeek * MINUTES_PER_DAY + minuteOfDay;
+    }
+
+    /***
+     * Creates a schedule with the same window on every day.
+     * @param startHour start hour
+     * @param startMinute start minute
+     * @param endHour end hour
+     * @param endMinute end minute
+     * @return compiled schedule
+     */
+    public static TimeOfDaySchedule daily(int startHour, int startMinute, int endHour, int endMinute) {
+        final long[] active = new long[bitmapLength()];
+        final int start = startHour * 60 + startMinute;
+        final int end = endHour * 60 + endMinute;
+        for(int day = 0; day < 7; day++) {
+            addWindow(active, day, start, end);
+        }
+        return new TimeOfDaySchedule(invert(active),
+                String.format(Locale.ROOT, "%02d:%02d-%02d:%02d", startHour, startMinute, endHour, endMinute));
+    }
+
+    /***
+     * Parses and compiles a schedule. Windows are separated by ";", each window consists of
+     * optional days and a time range, e.g. "mon-fri 07:00-22:00; sat,sun 09:00-23:00". Without
+     * days the window applies to every day.
+     * @param windows windows to parse
+     * @return compiled schedule, {@link #ALWAYS} if there are no windows
+     * @throws IllegalArgumentException if a window is not valid
+     */
+    public static TimeOfDaySchedule parse(String windows) {
+        final long[] active = new long[bitmapLength()];
+        final StringBuilder description = new StringBuilder();
+        boolean any = false;
+
+        for(String window : windows.split(";")) {
+            final String trimmed = window.trim().toLowerCase(Locale.ROOT);
+            if(trimmed.isEmpty()) {
+                continue;
+            }
+            final String[] parts = trimmed.split("\\s+");
+            if(parts.length > 2) {
+                throw new IllegalArgumentException("Invalid window: " + window);
+            }
+
+            final boolean[] days = parts.length == 2 ? parseDays(parts[0]) : null;
+            final String range = parts[parts.length - 1];
+            final int dash = range.indexOf('-');
+            if(dash < 0) {
+                throw new IllegalArgumentException("Invalid time range: " + range);
+            }
+            final int start = parseTime(range.substring(0, dash));
+            final int end = parseTime(range.substring(dash + 1));
+
+            for(int day = 0; day < 7; day++) {
+                if(days == null || days[day]) {
+                    addWindow(active, day, start, end);
+                }
+            }
+            if(any) {
+                description.append("; ");
+            }
+            description.append(trimmed);
+            any = true;
+        }
+
+        if(!any) {
+            return ALWAYS;
+        }
+        return new TimeOfDaySchedule(invert(active), description.toString());
+    }
+
+    private static boolean[] parseDays(String spec) {
+        final boolean[] days = new boolean[7];
+        for(String part : spec.split(",")) {
+            final int dash = part.indexOf('-');
+            if(dash < 0) {
+                days[parseDay(part)] = true;
+            } else {
+                final int from = parseDay(part.substring(0, dash));
+                final int to = parseDay(part.substring(dash + 1));
+                for(int day = from; ; day = (day + 1) % 7) {
+                    days[day] = true;
+                    if(day == to) {
+                        break;
+                    }
+                }
+            }
+        }
+        return days;
+    }
+
+    private static int parseDay(String day) {
+        for(int i = 0; i < DAYS.length; i++) {
+            if(DAYS[i].equals(day)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Invalid day: " + day);
+    }
+
+    private static int parseTime(String time) {
+        final int colon = time.indexOf(':');
+        try {
+            final int hour = Integer.parseInt(colon < 0 ? time : time.substring(0, colon));
+            final int minute = colon < 0 ? 0 : Integer.parseInt(time.substring(colon + 1));
+            if(hour < 0 || hour > 23 || minute < 0 || minute > 59) {
+                throw new IllegalArgumentException("Invalid time: " + time);
+            }
+            return hour * 60 + minute;
+        } catch(NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid time: " + time);
+        }
+    }
+
+    /***
+     * Sets the bits of a window, wrapping past midnight into the next day (and past Sunday into
+     * Monday).
+     */
+    private static void addWindow(long[] bitmap, int day, int start, int end) {
+        int length = end - start;
+        if(length <= 0) {
+            length += MINUTES_PER_DAY;
+        }
+        final int first = day * MINUTES_PER_DAY + start;
+        for(int i = 0; i < length; i++) {
+            final int minute = (first + i) % MINUTES_PER_WEEK;
+            bitmap[minute >>> 6] |= 1L << minute;
+        }
+    }
+
+    private static long[] invert(long[] bitmap) {
+        for(int i = 0; i < bitmap.length; i++) {
+            bitmap[i] = ~bitmap[i];
+        }
+        return bitmap;
+    }
+
+    private static int bitmapLength() {
+        return (MINUTES_PER_WEEK + 63) / 64;
+    }
+}
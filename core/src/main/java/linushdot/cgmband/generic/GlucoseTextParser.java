@@ -0,0 +1,90 @@
+package linushdot.cgmband.generic;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import linushdot.cgmband.CgmUnit;
+import linushdot.cgmband.CgmValue;
+
+/***
+ * Parser for notification texts of CGM apps with a known layout, given as pattern anchored at the
+ * start of the text. Group 1 of the pattern is the value, group 2 the unit ("mg/dl" or "mmol/l",
+ * any case).
+ *
+ * A text only yields a value if it matches the layout including the unit and the value is within
+ * the range a sensor can report, so other ongoing notifications of the same app (e.g. "Sensor
+ * warm-up 45 min" or "Last reading 12 min ago") are not taken as readings.
+ *
+ * The pattern is compiled once, the matcher is reused between calls. Instances are not thread-safe.
+ */
+public class GlucoseTextParser {
+
+    private static final String NUMBER = "([0-9]{1,3}(?:[.,][0-9]{1,2})?)";
+
+    private static final String UNIT = "(mg/dl|mmol/l)\\b";
+
+    /***
+     * Value directly followed by the unit, e.g. "5.5 mmol/L" or "123 mg/dL".
+     */
+    public static final Pattern VALUE_UNIT = Pattern.compile(
+            "^\\s*" + NUMBER + "\\s*" + UNIT, Pattern.CASE_INSENSITIVE);
+
+    /***
+     * Value, an optional trend arrow and an optional delta followed by the unit at the end, e.g.
+     * "5.5 → +0.1 mmol/l" or "123 ↗ Δ +4 mg/dl".
+     */
+    public static final Pattern VALUE_TREND_UNIT = Pattern.compile(
+            "^\\s*" + NUMBER + "\\s*(?:[^\\s0-9+\\-.,]{1,2}\\s*)?" +
+                    "(?:(?:Δ|Delta:?)?\\s*[+\\-±]?[0-9]+(?:[.,][0-9]+)?\\s*)?" + UNIT + "\\s*$",
+            Pattern.CASE_INSENSITIVE);
+
+    // range of values a sensor can report
+    private static final float MIN_MGDL = 20;
+    private static final float MAX_MGDL = 600;
+
+    private final Matcher matcher;
+
+    /***
+     * Creates a parser for the layout {@link #VALUE_UNIT}
+     */
+    public GlucoseTextParser() {
+        this(VALUE_UNIT);
+    }
+
+    /***
+     * Creates a parser for a layout
+     * @param pattern pattern of the layout, group 1 is the value and group 2 the unit
+     */
+    public GlucoseTextParser(Pattern pattern) {
+        this.matcher = pattern.matcher("");
+    }
+
+    /***
+     * Parses a notification text
+     * @param str text to parse
+     * @param time time of the value
+     * @return parsed value, null if the text does not match the layout or the value is out of range
+     */
+    public CgmValue parse(CharSequence str, long time) {
+        final Matcher match = matcher.reset(str);
+        if(!match.find()) {
+            return null;
+        }
+
+        final float value;
+        try {
+            value = Float.parseFloat(match.group(1).replace(',', '.'));
+        } catch(NumberFormatException e) {
+            return null;
+        }
+
+        // "mg/dl" or "mmol/l", told apart by the second character
+        final char second = Character.toLowerCase(str.charAt(match.start(2) + 1));
+        final CgmUnit unit = second == 'g' ? CgmUnit.MG_DL : CgmUnit.MMOL_L;
+        final double mgdl = unit.toMgdl(value);
+        if(mgdl < MIN_MGDL || mgdl > MAX_MGDL) {
+            return null;
+        }
+        return new CgmValue(value, unit, time);
+    }
+}
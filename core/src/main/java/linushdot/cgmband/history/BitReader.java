@@ -0,0 +1,45 @@
+package linushdot.cgmband.history;
+
+import java.io.IOException;
+
+/***
+ * Reads bits most significant first from a byte array, see {@link BitWriter}.
+ */
+final class BitReader {
+
+    private byte[] bytes;
+
+    private int length;
+
+    private long position;
+
+    void reset(byte[] bytes, int length) {
+        this.bytes = bytes;
+        this.length = length;
+        this.position = 0;
+    }
+
+    long read(int count) throws IOException {
+        if(position + count > (long) length * 8) {
+            throw new IOException("Truncated block");
+        }
+        long bits = 0;
+        for(int i = 0; i < count; i++) {
+            bits = (bits << 1) | ((bytes[(int) (position >>> 3)] >>> (7 - (position & 7))) & 1);
+            position++;
+        }
+        return bits;
+    }
+
+    boolean readBit() throws IOException {
+        return read(1) != 0;
+    }
+
+    /***
+     * Reads a signed value written in two's complement with the given number of bits
+     */
+    long readSigned(int count) throws IOException {
+        final long bits = read(count);
+        return (bits << (64 - count)) >> (64 - count);
+    }
+}
@@ -0,0 +1,55 @@
+package linushdot.cgmband.history;
+
+import java.util.Arrays;
+
+/***
+ * Writes bits most significant first into a growable byte array.
+ */
+final class BitWriter {
+
+    private byte[] bytes = new byte[256];
+
+    // number of bits written
+    private long position;
+
+    void write(long bits, int count) {
+        ensureCapacity(position + count);
+        for(int i = count - 1; i >= 0; i--) {
+            if(((bits >>> i) & 1) != 0) {
+                bytes[(int) (position >>> 3)] |= 0x80 >>> (position & 7);
+            }
+            position++;
+        }
+    }
+
+    void writeBit(boolean bit) {
+        ensureCapacity(position + 1);
+        if(bit) {
+            bytes[(int) (position >>> 3)] |= 0x80 >>> (position & 7);
+        }
+        position++;
+    }
+
+    /***
+     * @return number of bytes used, the last byte is padded with zero bits
+     */
+    int byteLength() {
+        return (int) ((position + 7) >>> 3);
+    }
+
+    byte[] bytes() {
+        return bytes;
+    }
+
+    void reset() {
+        Arrays.fill(bytes, 0, byteLength(), (byte) 0);
+        position = 0;
+    }
+
+    private void ensureCapacity(long bits) {
+        final int needed = (int) ((bits + 7) >>> 3);
+        if(needed > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(needed, bytes.length * 2));
+        }
+    }
+}
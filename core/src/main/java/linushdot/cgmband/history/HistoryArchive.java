@@ -0,0 +1,455 @@
+package linushdot.cgmband.history;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import linushdot.cgmband.CgmReading;
+import linushdot.cgmband.CgmUnit;
+
+/***
+ * Compressed archive format for long-term storage and export of CGM readings.
+ *
+ * Readings are encoded in blocks of up to {@link #BLOCK_SIZE} readings, each with a header (count,
+ * first and last time, length in bytes), so readers can skip blocks outside a time range without
+ * decoding them. Inside a block each reading is bit-packed, similar to the Gorilla time series
+ * encoding:
+ * - time: delta-of-delta of the time in seconds, "0" for the same interval as before, otherwise
+ *   a prefix and a 5, 9, 16 or 64 bit difference
+ * - unit: "0" if unchanged, otherwise "1" and the 2 bit unit code
+ * - value: the values of CGM apps have a fixed precision (1 mg/dL or 0.1 mmol/L), so they are
+ *   coded as the difference in steps to the previous value, "0" if unchanged, otherwise a prefix and
+ *   a 4, 8 or 20 bit difference. Other values are stored as raw float.
+ *
+ * Readings every 5 minutes take 1 to 2 bytes, a year of readings fits in 100 to 200 KB.
+ *
+ * Times are stored with a resolution of one second, the milliseconds are dropped.
+ */
+public final class HistoryArchive {
+
+    public static final int BLOCK_SIZE = 1024;
+
+    private static final int MAGIC = 0x43474d5a; // "CGMZ"
+
+    private static final int VERSION = 1;
+
+    private static final int MMOL_L = CgmUnit.MMOL_L.getCode();
+
+    private HistoryArchive() {
+    }
+
+    /***
+     * Writes all readings of a history store as archive. The readings present when the export
+     * starts are copied from the store in blocks, each under a short lock, and encoded and written
+     * outside of it, so appends to the store are not blocked by the output stream.
+     * @param store history store
+     * @param out output stream, closed when done
+     * @return number of readings written
+     * @throws IOException if writing fails
+     */
+    public static int export(HistoryStore store, OutputStream out) throws IOException {
+        final int end = store.size();
+        final long[] readings = new long[BLOCK_SIZE];
+        try(final Writer writer = new Writer(out)) {
+            for(int index = 0; index < end; ) {
+                final int count = store.read(index, readings, Math.min(BLOCK_SIZE, end - index));
+                if(count == 0) {
+                    break;
+                }
+                for(int i = 0; i < count; i++) {
+                    final long reading = readings[i];
+                    writer.append(CgmReading.getTime(reading), CgmReading.getValue(reading),
+                            CgmReading.getUnit(reading).getCode());
+                }
+                index += count;
+            }
+            return writer.getCount();
+        }
+    }
+
+    /***
+     * Reads the readings in a time range of an archive
+     * @param in input stream, closed when done
+     * @param from start time (inclusive)
+     * @param to end time (exclusive)
+     * @param visitor visitor receiving the readings in order
+     * @return number of readings visited
+     * @throws IOException if the archive cannot be read
+     */
+    public static int read(InputStream in, long from, long to, HistoryStore.Visitor visitor)
+            throws IOException {
+        final long[] times = new long[BLOCK_SIZE];
+        final float[] values = new float[BLOCK_SIZE];
+        final byte[] units = new byte[BLOCK_SIZE];
+        int visited = 0;
+        try(final Reader reader = new Reader(in)) {
+            while(reader.nextBlock()) {
+                if(reader.getLastTime() < from) {
+                    reader.skipBlock();
+                    continue;
+                }
+                if(reader.getFirstTime() >= to) {
+                    break;
+                }
+                final int count = reader.decodeBlock(times, values, units);
+                for(int i = 0; i < count; i++) {
+                    if(times[i] >= from && times[i] < to) {
+                        visitor.visit(times[i], values[i], units[i]);
+                        visited++;
+                    }
+                }
+            }
+        }
+        return visited;
+    }
+
+    /***
+     * Streaming encoder, readings are buffered until a block is full.
+     */
+    public static final class Writer implements Closeable {
+
+        private final DataOutputStream out;
+
+        private final BitWriter bits = new BitWriter();
+
+        private final Encoder encoder = new Encoder();
+
+        private int count;
+
+        private int blockCount;
+
+        private long firstTime;
+
+        private long lastTime;
+
+        public Writer(OutputStream out) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(out));
+            this.out.writeInt(MAGIC);
+            this.out.writeInt(VERSION);
+        }
+
+        /***
+         * Appends a reading
+         * @param time time in ms since epoch
+         * @param value CGM value
+         * @param unit unit code, see {@link CgmUnit#getCode()}
+         * @throws IOException if writing a full block fails
+         */
+        public void append(long time, float value, int unit) throws IOException {
+            final long seconds = Math.floorDiv(time, 1000L);
+            if(blockCount == 0) {
+                firstTime = seconds;
+                encoder.start(seconds);
+            }
+            encoder.encode(bits, seconds, value, unit & 3);
+            lastTime = seconds;
+            blockCount++;
+            count++;
+            if(blockCount == BLOCK_SIZE) {
+                writeBlock();
+            }
+        }
+
+        /***
+         * @return number of readings appended
+         */
+        public int getCount() {
+            return count;
+        }
+
+        private void writeBlock() throws IOException {
+            out.writeInt(blockCount);
+            out.writeLong(firstTime);
+            out.writeLong(lastTime);
+            out.writeInt(bits.byteLength());
+            out.write(bits.bytes(), 0, bits.byteLength());
+            bits.reset();
+            blockCount = 0;
+        }
+
+        /***
+         * Writes the last block and closes the stream.
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                if(blockCount > 0) {
+                    writeBlock();
+                }
+                out.flush();
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    /***
+     * Streaming decoder, decodes one block at a time into primitive arrays.
+     */
+    public static final class Reader implements Closeable {
+
+        private final DataInputStream in;
+
+        private final BitReader bits = new BitReader();
+
+        private final Encoder decoder = new Encoder();
+
+        private byte[] buffer = new byte[4096];
+
+        private int blockCount;
+
+        private long firstTime;
+
+        private long lastTime;
+
+        private int blockLength;
+
+        private boolean pending;
+
+        public Reader(InputStream in) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(in));
+            if(this.in.readInt() != MAGIC) {
+                throw new IOException("Not a history archive");
+            }
+            final int version = this.in.readInt();
+            if(version != VERSION) {
+                throw new IOException("Unsupported archive version " + version);
+            }
+        }
+
+        /***
+         * Reads the header of the next block, skipping the current block if it was not decoded
+         * @return false at the end of the archive
+         * @throws IOException if the archive cannot be read
+         */
+        public boolean nextBlock() throws IOException {
+            if(pending) {
+                skipBlock();
+            }
+            try {
+                blockCount = in.readInt();
+            } catch(EOFException e) {
+                return false;
+            }
+            firstTime = in.readLong();
+            lastTime = in.readLong();
+            blockLength = in.readInt();
+            if(blockCount <= 0 || blockCount > BLOCK_SIZE || blockLength < 0) {
+                throw new IOException("Invalid block header");
+            }
+            pending = true;
+            return true;
+        }
+
+        /***
+         * @return number of readings in the current block
+         */
+        public int getBlockCount() {
+            return blockCount;
+        }
+
+        /***
+         * @return time of the first reading in the current block in ms since epoch
+         */
+        public long getFirstTime() {
+            return firstTime * 1000;
+        }
+
+        /***
+         * @return time of the last reading in the current block in ms since epoch
+         */
+        public long getLastTime() {
+            return lastTime * 1000;
+        }
+
+        /***
+         * Skips the current block without decoding it.
+         */
+        public void skipBlock() throws IOException {
+            if(pending) {
+                in.readFully(buffer(blockLength), 0, blockLength);
+                pending = false;
+            }
+        }
+
+        /***
+         * Decodes the current block
+         * @param times receives the times in ms since epoch
+         * @param values receives the values
+         * @param units receives the unit codes
+         * @return number of readings decoded
+         * @throws IOException if the block is not valid
+         */
+        public int decodeBlock(long[] times, float[] values, byte[] units) throws IOException {
+            if(!pending) {
+                throw new IllegalStateException("No block to decode");
+            }
+            final byte[] bytes = buffer(blockLength);
+            in.readFully(bytes, 0, blockLength);
+            pending = false;
+
+            bits.reset(bytes, blockLength);
+            decoder.start(firstTime);
+            for(int i = 0; i < blockCount; i++) {
+                decoder.decode(bits);
+                times[i] = decoder.time * 1000;
+                values[i] = decoder.value;
+                units[i] = (byte) decoder.unit;
+            }
+            return blockCount;
+        }
+
+        private byte[] buffer(int length) {
+            if(buffer.length < length) {
+                buffer = new byte[length];
+            }
+            return buffer;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /***
+     * State of the encoding within a block, shared by encoder and decoder so both follow the same
+     * rules.
+     */
+    private static final class Encoder {
+
+        long time;
+
+        long delta;
+
+        float value;
+
+        int unit;
+
+        // value of the previous reading in steps, if it had the fixed precision
+        long steps;
+
+        boolean hasSteps;
+
+        void start(long firstTime) {
+            time = firstTime;
+            delta = 0;
+            unit = -1;
+            hasSteps = false;
+        }
+
+        void encode(BitWriter out, long newTime, float newValue, int newUnit) {
+            // time
+            final long newDelta = newTime - time;
+            final long dod = newDelta - delta;
+            if(dod == 0) {
+                out.writeBit(false);
+            } else if(dod >= -16 && dod < 16) {
+                out.write(0b10, 2);
+                out.write(dod, 5);
+            } else if(dod >= -256 && dod < 256) {
+                out.write(0b110, 3);
+                out.write(dod, 9);
+            } else if(dod >= -32768 && dod < 32768) {
+                out.write(0b1110, 4);
+                out.write(dod, 16);
+            } else {
+                out.write(0b1111, 4);
+                out.write(dod, 64);
+            }
+            time = newTime;
+            delta = newDelta;
+
+            // unit
+            if(newUnit == unit) {
+                out.writeBit(false);
+            } else {
+                out.writeBit(true);
+                out.write(newUnit, 2);
+                unit = newUnit;
+                hasSteps = false;
+            }
+
+            // value
+            final int scale = scale(unit);
+            final long newSteps = Math.round(newValue * (double) scale);
+            final boolean exact = fromSteps(newSteps, scale) == newValue;
+            final long d = newSteps - steps;
+            if(exact && hasSteps && d == 0) {
+                out.writeBit(false);
+            } else if(exact && hasSteps && d >= -8 && d < 8) {
+                out.write(0b10, 2);
+                out.write(d, 4);
+            } else if(exact && hasSteps && d >= -128 && d < 128) {
+                out.write(0b110, 3);
+                out.write(d, 8);
+            } else if(exact && hasSteps && d >= -(1 << 19) && d < (1 << 19)) {
+                out.write(0b1110, 4);
+                out.write(d, 20);
+            } else {
+                out.write(0b1111, 4);
+                out.write(Float.floatToIntBits(newValue), 32);
+            }
+            value = newValue;
+            steps = newSteps;
+            hasSteps = exact;
+        }
+
+        void decode(BitReader in) throws IOException {
+            // time
+            final long dod;
+            if(!in.readBit()) {
+                dod = 0;
+            } else if(!in.readBit()) {
+                dod = in.readSigned(5);
+            } else if(!in.readBit()) {
+                dod = in.readSigned(9);
+            } else if(!in.readBit()) {
+                dod = in.readSigned(16);
+            } else {
+                dod = in.read(64);
+            }
+            delta += dod;
+            time += delta;
+
+            // unit
+            if(in.readBit()) {
+                unit = (int) in.read(2);
+                hasSteps = false;
+            }
+
+            // value
+            final int scale = scale(unit);
+            if(!in.readBit()) {
+                value = fromSteps(steps, scale);
+            } else if(!in.readBit()) {
+                steps += in.readSigned(4);
+                value = fromSteps(steps, scale);
+            } else if(!in.readBit()) {
+                steps += in.readSigned(8);
+                value = fromSteps(steps, scale);
+            } else if(!in.readBit()) {
+                steps += in.readSigned(20);
+                value = fromSteps(steps, scale);
+            } else {
+                value = Float.intBitsToFloat((int) in.read(32));
+                steps = Math.round(value * (double) scale);
+                hasSteps = fromSteps(steps, scale) == value;
+            }
+        }
+
+        private static int scale(int unit) {
+            return unit == MMOL_L ? 10 : 1;
+        }
+
+        private static float fromSteps(long steps, int scale) {
+            return (float) (steps / (double) scale);
+        }
+    }
+}
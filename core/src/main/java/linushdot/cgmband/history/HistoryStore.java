@@ -0,0 +1,377 @@
+package linushdot.cgmband.history;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import linushdot.cgmband.CgmReading;
+import linushdot.cgmband.CgmUnit;
+import linushdot.cgmband.CgmValue;
+
+/***
+ * Append-only store of CGM readings in a memory-mapped file.
+ *
+ * The file starts with a header (magic, version, committed record count) followed by fixed-width
+ * records of {@link #RECORD_SIZE} bytes:
+ * - time (long, ms since epoch)
+ * - value (float)
+ * - unit code (byte, see {@link CgmUnit#getCode()})
+ * - reserved (byte)
+ * - check (short, non-zero hash of the other fields)
+ *
+ * Records are kept sorted by time, appends with a time not after the last record are ignored. The
+ * committed count in the header is only updated every {@link #BATCH_SIZE} appends and on
+ * {@link #flush()}. When opening, records after the committed count are recovered as long as their
+ * check is valid and their time increases, so a crash loses at most a partially written record.
+ *
+ * Values are written through {@link CgmReading}, so they are rounded to hundredths and range
+ * checked before they are stored. Records can be read back as packed readings, values out of range
+ * (only in files written by older versions) are clamped to the range of {@link CgmReading}.
+ *
+ * Range scans read straight from the mapped file and pass primitives to a {@link Visitor}.
+ *
+ * A store opened with {@link #openReadOnly(File)} maps the file read-only and never writes to it,
+ * the recovered tail is only counted, not committed.
+ *
+ * All methods are synchronized, the store can be read from other threads while one thread appends.
+ */
+public class HistoryStore implements Closeable {
+
+    public static final int RECORD_SIZE = 16;
+
+    private static final int HEADER_SIZE = 16;
+
+    private static final int MAGIC = 0x43474d48; // "CGMH"
+
+    private static final int VERSION = 1;
+
+    private static final int OFFSET_COUNT = 8;
+
+    private static final int BATCH_SIZE = 12;
+
+    private static final int GROWTH_RECORDS = 8192;
+
+    /***
+     * Receives records of a range scan.
+     */
+    public interface Visitor {
+
+        /***
+         * Visits one record
+         * @param time time in ms since epoch
+         * @param value CGM value
+         * @param unit unit code
+         */
+        void visit(long time, float value, int unit);
+
+    }
+
+    private final RandomAccessFile file;
+
+    private final FileChannel channel;
+
+    private final boolean readOnly;
+
+    private MappedByteBuffer buffer;
+
+    private int capacity;
+
+    private int count;
+
+    private int uncommitted;
+
+    private HistoryStore(RandomAccessFile file, boolean readOnly) {
+        this.file = file;
+        this.channel = file.getChannel();
+        this.readOnly = readOnly;
+    }
+
+    /***
+     * Opens a history file, creating it if it does not exist, and recovers records written after
+     * the last commit.
+     * @param path history file
+     * @return opened store
+     * @throws IOException if the file cannot be mapped or is not a history file
+     */
+    public static HistoryStore open(File path) throws IOException {
+        final HistoryStore store = new HistoryStore(new RandomAccessFile(path, "rw"), false);
+        try {
+            store.init();
+        } catch(IOException e) {
+            store.close();
+            throw e;
+        }
+        return store;
+    }
+
+    /***
+     * Opens an existing history file for reading only. Records written after the last commit are
+     * recovered in memory, the file is not modified.
+     * @param path history file
+     * @return opened store, {@link #append} fails on it
+     * @throws IOException if the file does not exist, cannot be mapped or is not a history file
+     */
+    public static HistoryStore openReadOnly(File path) throws IOException {
+        final HistoryStore store = new HistoryStore(new RandomAccessFile(path, "r"), true);
+        try {
+            store.initReadOnly();
+        } catch(IOException e) {
+            store.close();
+            throw e;
+        }
+        return store;
+    }
+
+    private void init() throws IOException {
+        final long length = channel.size();
+        if(length < HEADER_SIZE) {
+            map(GROWTH_RECORDS);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putLong(OFFSET_COUNT, 0);
+            count = 0;
+            return;
+        }
+
+        recover(length);
+        commit();
+    }
+
+    private void initReadOnly() throws IOException {
+        final long length = channel.size();
+        if(length < HEADER_SIZE) {
+            throw new IOException("Not a history file");
+        }
+        recover(length);
+    }
+
+    private void recover(long length) throws IOException {
+        map((int) Math.min(Integer.MAX_VALUE, (length - HEADER_SIZE) / RECORD_SIZE));
+        if(buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a history file");
+        }
+        if(buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported history version " + buffer.getInt(4));
+        }
+
+        // recover the tail
+        int n = (int) Math.max(0, Math.min(capacity, buffer.getLong(OFFSET_COUNT)));
+        while(n > 0 && !isValid(n - 1)) {
+            n--;
+        }
+        while(n < capacity && isValid(n) && (n == 0 || getTimeAt(n) > getTimeAt(n - 1))) {
+            n++;
+        }
+        count = n;
+    }
+
+    private void map(int records) throws IOException {
+        capacity = records;
+        buffer = channel.map(readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE,
+                0, HEADER_SIZE + (long) records * RECORD_SIZE);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /***
+     * Appends a value.
+     * @param value CGM value
+     * @return true if appended, false if its time is not after the last record or it cannot be
+     * packed (see {@link CgmReading#fits})
+     * @throws IOException if the file cannot be extended or the store is read-only
+     */
+    public boolean append(CgmValue value) throws IOException {
+        if(!CgmReading.fits(value.getTime(), value.getValue())) {
+            return false;
+        }
+        return append(CgmReading.pack(value));
+    }
+
+    /***
+     * Appends a packed reading.
+     * @param reading reading, see {@link CgmReading}
+     * @return true if appended, false if its time is not after the last record
+     * @throws IOException if the file cannot be extended or the store is read-only
+     */
+    public boolean append(long reading) throws IOException {
+        return append(CgmReading.getTime(reading), CgmReading.getValue(reading),
+                CgmReading.getUnit(reading).getCode());
+    }
+
+    private synchronized boolean append(long time, float value, int unit) throws IOException {
+        if(readOnly) {
+            throw new IOException("History opened read-only");
+        }
+        if(count > 0 && time <= getTimeAt(count - 1)) {
+            return false;
+        }
+        if(count == capacity) {
+            map(capacity + GROWTH_RECORDS);
+        }
+
+        final int valueBits = Float.floatToRawIntBits(value);
+        final int offset = HEADER_SIZE + count * RECORD_SIZE;
+        buffer.putLong(offset, time);
+        buffer.putInt(offset + 8, valueBits);
+        buffer.put(offset + 12, (byte) unit);
+        buffer.put(offset + 13, (byte) 0);
+        buffer.putShort(offset + 14, check(time, valueBits, unit));
+        count++;
+
+        if(++uncommitted >= BATCH_SIZE) {
+            commit();
+        }
+        return true;
+    }
+
+    /***
+     * Commits the record count and forces the mapped file to storage, nop if the store is read-only.
+     */
+    public synchronized void flush() {
+        if(readOnly) {
+            return;
+        }
+        commit();
+        buffer.force();
+    }
+
+    private void commit() {
+        buffer.putLong(OFFSET_COUNT, count);
+        uncommitted = 0;
+    }
+
+    /***
+     * @return number of records
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+    public synchronized long getTime(int index) {
+        checkIndex(index);
+        return getTimeAt(index);
+    }
+
+    public synchronized float getValue(int index) {
+        checkIndex(index);
+        return buffer.getFloat(HEADER_SIZE + index * RECORD_SIZE + 8);
+    }
+
+    public synchronized int getUnit(int index) {
+        checkIndex(index);
+        return buffer.get(HEADER_SIZE + index * RECORD_SIZE + 12);
+    }
+
+    /***
+     * @param index index of the record
+     * @return record as packed reading, see {@link CgmReading}
+     */
+    public synchronized long getReading(int index) {
+        checkIndex(index);
+        return getReadingAt(index);
+    }
+
+    /***
+     * Reads a range of records as packed readings, taking the lock once for the whole range.
+     * @param index index of the first record
+     * @param readings receives the readings, see {@link CgmReading}
+     * @param length maximum number of records to read, at most the length of the array
+     * @return number of records read, less than length if the store has fewer records
+     */
+    public synchronized int read(int index, long[] readings, int length) {
+        if(index < 0) {
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + count);
+        }
+        final int n = Math.max(0, Math.min(length, count - index));
+        for(int i = 0; i < n; i++) {
+            readings[i] = getReadingAt(index + i);
+        }
+        return n;
+    }
+
+    /***
+     * Finds the first record at or after a time (binary search).
+     * @param time time in ms since epoch
+     * @return index of the first record with a time >= time, {@link #size()} if there is none
+     */
+    public synchronized int indexOf(long time) {
+        int low = 0;
+        int high = count;
+        while(low < high) {
+            final int mid = (low + high) >>> 1;
+            if(getTimeAt(mid) < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /***
+     * Visits all records in a time range.
+     * @param from start time (inclusive)
+     * @param to end time (exclusive)
+     * @param visitor visitor receiving the records in order
+     * @return number of records visited
+     */
+    public synchronized int scan(long from, long to, Visitor visitor) {
+        int visited = 0;
+        for(int i = indexOf(from); i < count; i++) {
+            final int offset = HEADER_SIZE + i * RECORD_SIZE;
+            final long time = buffer.getLong(offset);
+            if(time >= to) {
+                break;
+            }
+            visitor.visit(time, buffer.getFloat(offset + 8), buffer.get(offset + 12));
+            visited++;
+        }
+        return visited;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if(buffer != null) {
+            flush();
+        }
+        channel.close();
+        file.close();
+    }
+
+    private long getTimeAt(int index) {
+        return buffer.getLong(HEADER_SIZE + index * RECORD_SIZE);
+    }
+
+    private long getReadingAt(int index) {
+        final int offset = HEADER_SIZE + index * RECORD_SIZE;
+        final long time = Math.max(0, Math.min(CgmReading.MAX_TIME, buffer.getLong(offset)));
+        final float value = buffer.getFloat(offset + 8);
+        final int fixed = CgmReading.fits(time, value) ? CgmReading.toFixed(value)
+                : value > 0 ? CgmReading.MAX_FIXED_VALUE : 0; // NaN as 0
+        return CgmReading.pack(time, fixed, CgmUnit.fromCode(buffer.get(offset + 12)));
+    }
+
+    private boolean isValid(int index) {
+        final int offset = HEADER_SIZE + index * RECORD_SIZE;
+        return buffer.getShort(offset + 14) == check(buffer.getLong(offset),
+                buffer.getInt(offset + 8), buffer.get(offset + 12));
+    }
+
+    private void checkIndex(int index) {
+        if(index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + count);
+        }
+    }
+
+    private static short check(long time, int valueBits, int unit) {
+        int h = (int) (time ^ (time >>> 32));
+        h = h * 31 + valueBits;
+        h = h * 31 + (unit & 0xff);
+        h ^= h >>> 16;
+        final short check = (short) h;
+        return check == 0 ? 1 : check;
+    }
+}
@@ -0,0 +1,156 @@
+package linushdot.cgmband.metrics;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/***
+ * Lock-free latency histogram with fixed power of two buckets.
+ *
+ * Bucket 0 counts latencies below 1 us, bucket i latencies from 2^(i-1) to 2^i us, the last bucket
+ * everything above. Recording is a few atomic increments without allocation, percentiles are
+ * estimated from the bucket bounds.
+ */
+public class LatencyHistogram {
+
+    public static final int BUCKETS = 32;
+
+    private final String name;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    // count, sum in ns, max in ns
+    private final AtomicLongArray totals = new AtomicLongArray(3);
+
+    public LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    /***
+     * Records a latency
+     * @param nanos latency in ns, negative values are counted as 0
+     */
+    public void record(long nanos) {
+        if(nanos < 0) {
+            nanos = 0;
+        }
+        buckets.incrementAndGet(bucket(nanos));
+        totals.incrementAndGet(0);
+        totals.addAndGet(1, nanos);
+        long max;
+        while(nanos > (max = totals.get(2)) && !totals.compareAndSet(2, max, nanos)) {
+            // retry
+        }
+    }
+
+    /***
+     * Records the time since a start time
+     * @param startNanos start time from {@link System#nanoTime()}
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    static int bucket(long nanos) {
+        final long micros = nanos / 1000;
+        final int bucket = 64 - Long.numberOfLeadingZeros(micros);
+        return bucket < BUCKETS ? bucket : BUCKETS - 1;
+    }
+
+    /***
+     * @param bucket bucket index
+     * @return upper bound of the bucket in ns
+     */
+    static long upperBound(int bucket) {
+        return bucket < BUCKETS - 1 ? (1L << bucket) * 1000 : Long.MAX_VALUE;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCount() {
+        return totals.get(0);
+    }
+
+    public long getMaxNanos() {
+        return totals.get(2);
+    }
+
+    public double getMeanNanos() {
+        final long count = totals.get(0);
+        return count > 0 ? totals.get(1) / (double) count : Double.NaN;
+    }
+
+    public long getBucketCount(int bucket) {
+        return buckets.get(bucket);
+    }
+
+    /***
+     * Estimates a percentile as the upper bound of the bucket containing it, bounded by the maximum
+     * @param percentile percentile from 0 to 100
+     * @return estimated latency in ns, 0 if nothing was recorded
+     */
+    public long getPercentileNanos(double percentile) {
+        long total = 0;
+        for(int i = 0; i < BUCKETS; i++) {
+            total += buckets.get(i);
+        }
+        if(total == 0) {
+            return 0;
+        }
+        final long rank = (long) Math.ceil(total * percentile / 100.0);
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if(seen >= rank && seen > 0) {
+                return Math.min(upperBound(i), getMaxNanos());
+            }
+        }
+        return getMaxNanos();
+    }
+
+    public void reset() {
+        for(int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        for(int i = 0; i < totals.length(); i++) {
+            totals.set(i, 0);
+        }
+    }
+
+    /***
+     * Appends a summary line (count, mean, median, p99 and max)
+     * @param sb string builder
+     */
+    public void appendSummary(StringBuilder sb) {
+        sb.append(String.format(Locale.ROOT, "%-12s n=%d mean=%s p50=%s p99=%s max=%s%n", name,
+                getCount(), format(getMeanNanos()), format(getPercentileNanos(50)),
+                format(getPercentileNanos(99)), format(getMaxNanos())));
+    }
+
+    /***
+     * Appends the non-empty buckets, one per line as "upper bound in us, count"
+     * @param sb string builder
+     */
+    public void appendBuckets(StringBuilder sb) {
+        for(int i = 0; i < BUCKETS; i++) {
+            final long count = buckets.get(i);
+            if(count > 0) {
+                sb.append(name).append(',')
+                        .append(i < BUCKETS - 1 ? String.valueOf(1L << i) : "inf").append(',')
+                        .append(count).append('\n');
+            }
+        }
+    }
+
+    private static String format(double nanos) {
+        if(Double.isNaN(nanos) || nanos == 0) {
+            return "-";
+        } else if(nanos < 1e6) {
+            return String.format(Locale.ROOT, "%.0fus", nanos / 1e3);
+        } else if(nanos < 1e9) {
+            return String.format(Locale.ROOT, "%.1fms", nanos / 1e6);
+        }
+        return String.format(Locale.ROOT, "%.1fs", nanos / 1e9);
+    }
+}
@@ -0,0 +1,109 @@
+package linushdot.cgmband.metrics;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/***
+ * Counters and latency histograms of the notification pipeline, shared by the notification listener
+ * and the activity of the same process.
+ *
+ * Counters and histograms are lock-free, updating them does not allocate. The values are kept in
+ * memory only and start from zero when the process starts.
+ */
+public class PipelineMetrics {
+
+    public static final int CALLBACKS = 0;
+    public static final int NON_MATCHING = 1;
+    public static final int CACHE_HITS = 2;
+    public static final int EXTRACTED = 3;
+    public static final int EXTRACT_FAILED = 4;
+    public static final int READINGS = 5;
+    public static final int NOTIFICATIONS = 6;
+    public static final int FILTERED = 7;
+    public static final int POSTED = 8;
+
+    private static final String[] COUNTER_NAMES = {
+            "callbacks", "non_matching", "cache_hits", "extracted", "extract_failed", "readings",
+            "notifications", "filtered", "posted"};
+
+    private static final PipelineMetrics instance = new PipelineMetrics();
+
+    private final long startTime = System.currentTimeMillis();
+
+    private final AtomicLongArray counters = new AtomicLongArray(COUNTER_NAMES.length);
+
+    // from the post time of the CGM notification until handled on the worker thread
+    public final LatencyHistogram delivery = new LatencyHistogram("delivery");
+
+    public final LatencyHistogram extract = new LatencyHistogram("extract");
+
+    // processors and filters, including publishing the band notification
+    public final LatencyHistogram process = new LatencyHistogram("process");
+
+    public final LatencyHistogram publish = new LatencyHistogram("publish");
+
+    // from the post time of the CGM notification until the band notification is posted
+    public final LatencyHistogram endToEnd = new LatencyHistogram("end_to_end");
+
+    private final LatencyHistogram[] histograms = {delivery, extract, process, publish, endToEnd};
+
+    public static PipelineMetrics getInstance() {
+        return instance;
+    }
+
+    /***
+     * Increments a counter
+     * @param counter counter, one of the constants
+     */
+    public void increment(int counter) {
+        counters.incrementAndGet(counter);
+    }
+
+    public long get(int counter) {
+        return counters.get(counter);
+    }
+
+    public void reset() {
+        for(int i = 0; i < counters.length(); i++) {
+            counters.set(i, 0);
+        }
+        for(LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+    }
+
+    /***
+     * @return short human readable summary of the counters and latencies
+     */
+    public String getSummary() {
+        final StringBuilder sb = new StringBuilder();
+        for(int i = 0; i < COUNTER_NAMES.length; i++) {
+            sb.append(COUNTER_NAMES[i]).append('=').append(counters.get(i))
+                    .append(i % 3 == 2 ? '\n' : ' ');
+        }
+        for(LatencyHistogram histogram : histograms) {
+            histogram.appendSummary(sb);
+        }
+        return sb.toString();
+    }
+
+    /***
+     * Creates a text dump of all counters and histogram buckets for export.
+     * @return dump
+     */
+    public String dump() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "# since %tFT%<tT%<tz, uptime %d s%n", startTime,
+                (System.currentTimeMillis() - startTime) / 1000));
+        sb.append(getSummary());
+        sb.append("# counter,value\n");
+        for(int i = 0; i < COUNTER_NAMES.length; i++) {
+            sb.append(COUNTER_NAMES[i]).append(',').append(counters.get(i)).append('\n');
+        }
+        sb.append("# histogram,upper bound in us,count\n");
+        for(LatencyHistogram histogram : histograms) {
+            histogram.appendBuckets(sb);
+        }
+        return sb.toString();
+    }
+}
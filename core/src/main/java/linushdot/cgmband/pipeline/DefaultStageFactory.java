@@ -0,0 +1,123 @@
+package linushdot.cgmband.pipeline;
+
+import linushdot.cgmband.Clock;
+import linushdot.cgmband.CgmValueProcessor;
+import linushdot.cgmband.NotificationFilter;
+import linushdot.cgmband.ReadingBuffer;
+import linushdot.cgmband.filters.TimeOfDayFilter;
+import linushdot.cgmband.filters.TimeOfDaySchedule;
+import linushdot.cgmband.processors.MessageTemplate;
+import linushdot.cgmband.processors.PredictiveAlertProcessor;
+import linushdot.cgmband.processors.RelativeDeltaProcessor;
+import linushdot.cgmband.processors.TrendProcessor;
+
+/***
+ * Stage factory for the processors and filters of the core module:
+ *
+ * Processors:
+ * - relative_delta[:minDelta,maxDelta,maxTimeDiffMins] ({@link RelativeDeltaProcessor}, message
+ *   from the template source)
+ * - trend[:windowMins,minReadings,margin] ({@link TrendProcessor})
+ * - predictive_alert[:low,high,horizonMins,repeatMins] ({@link PredictiveAlertProcessor})
+ *
+ * Filters:
+ * - time_of_day ({@link TimeOfDayFilter})
+ */
+public class DefaultStageFactory implements StageFactory {
+
+    private final ReadingBuffer readings;
+
+    private final TimeOfDaySchedule.Source schedule;
+
+    private final Clock clock;
+
+    private final MessageTemplate.Source templates;
+
+    /***
+     * Creates a new stage factory with the default message template
+     * @param readings shared recent readings for the processors
+     * @param schedule schedule for the time of day filter
+     * @param clock clock for the filters
+     */
+    public DefaultStageFactory(ReadingBuffer readings, TimeOfDaySchedule.Source schedule, Clock clock) {
+        this(readings, schedule, clock,
+                MessageTemplate.constant(MessageTemplate.compile(MessageTemplate.DEFAULT)));
+    }
+
+    /***
+     * Creates a new stage factory
+     * @param readings shared recent readings for the processors
+     * @param schedule schedule for the time of day filter
+     * @param clock clock for the filters
+     * @param templates message template for the relative delta processor
+     */
+    public DefaultStageFactory(ReadingBuffer readings, TimeOfDaySchedule.Source schedule, Clock clock,
+                               MessageTemplate.Source templates) {
+        this.readings = readings;
+        this.schedule = schedule;
+        this.clock = clock;
+        this.templates = templates;
+    }
+
+    @Override
+    public CgmValueProcessor createProcessor(String name, String[] args) {
+        switch(name) {
+            case "relative_delta":
+                if(args.length == 0) {
+                    return new RelativeDeltaProcessor(0.1, 0.1, 119, templates);
+                }
+                checkArgs(name, args, 3);
+                return new RelativeDeltaProcessor(parseDouble(args[0]), parseDouble(args[1]),
+                        parseLong(args[2]), templates);
+            case "trend":
+                if(args.length == 0) {
+                    return new TrendProcessor(readings);
+                }
+                checkArgs(name, args, 3);
+                return new TrendProcessor(readings, parseLong(args[0]), (int) parseLong(args[1]),
+                        parseDouble(args[2]));
+            case "predictive_alert":
+                if(args.length == 0) {
+                    return new PredictiveAlertProcessor(readings);
+                }
+                checkArgs(name, args, 4);
+                return new PredictiveAlertProcessor(readings, parseDouble(args[0]),
+                        parseDouble(args[1]), parseLong(args[2]), parseLong(args[3]));
+            default:
+                throw new IllegalArgumentException("Unknown processor " + name);
+        }
+    }
+
+    @Override
+    public NotificationFilter createFilter(String name, String[] args) {
+        switch(name) {
+            case "time_of_day":
+                checkArgs(name, args, 0);
+                return new TimeOfDayFilter(schedule, clock);
+            default:
+                throw new IllegalArgumentException("Unknown filter " + name);
+        }
+    }
+
+    private static void checkArgs(String name, String[] args, int count) {
+        if(args.length != count) {
+            throw new IllegalArgumentException(name + " expects " + count + " arguments");
+        }
+    }
+
+    private static double parseDouble(String arg) {
+        try {
+            return Double.parseDouble(arg);
+        } catch(NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number: " + arg);
+        }
+    }
+
+    private static long parseLong(String arg) {
+        try {
+            return Long.parseLong(arg);
+        } catch(NumberFormatException e) {
+            throw new IllegalArgumentException("Not an integer: " + arg);
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package linushdot.cgmband.pipeline;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import linushdot.cgmband.CgmValue;
+import linushdot.cgmband.CgmValueProcessor;
+import linushdot.cgmband.NotificationFilter;
+import linushdot.cgmband.Urgency;
+
+/***
+ * Compiled processing pipeline.
+ *
+ * The pipeline is compiled from a rule configuration with one rule per line (or separated by ";").
+ * A rule names a processor followed by the filters for its notifications, separated by ">".
+ * Processors and filters can have arguments after a ":", separated by ",", e.g.:
+ *
+ * relative_delta:0.1,0.1,119 > time_of_day
+ * trend > time_of_day
+ * predictive_alert
+ *
+ * The default is only the relative delta notification behind the time of day filter. The trend and
+ * predictive alert processors are opt-in by adding their rules; a predictive alert is meant to wake
+ * the user, so it should not be placed behind the time of day filter.
+ *
+ * The rules only configure processors and filters. Extractors are not part of the configurable
+ * graph, they are chosen by the package of the notification.
+ *
+ * Compiling creates the stages through a {@link StageFactory} and flattens them into arrays, so
+ * processing a value only iterates arrays. Processors and filters with the same specification as in
+ * the previous pipeline are reused, keeping their state across recompiles. A filter specification
+ * used in several rules is created once and shared.
+ *
+ * The state of the processors can be saved and restored by their specification, see
+ * {@link #saveState(DataOutput)}. Saving reuses a buffer of the pipeline, so a pipeline must not be
+ * saved from several threads at once.
+ */
+public class Pipeline {
+
+    public static final String KEY_RULES = "pipeline_rules";
+
+    private static final int STATE_VERSION = 1;
+
+    public static final String DEFAULT_CONFIG = "relative_delta > time_of_day";
+
+    /***
+     * Receives the notifications generated by the processors.
+     */
+    public interface Output {
+
+        /***
+         * Handles a notification
+         * @param rule specification of the processor of the rule, identifies the rule
+         * @param value processed value
+         * @param notification notification message
+         * @param urgency urgency of the notification, from its processor
+         * @param filtered true if one of the filters of the rule was positive
+         */
+        void output(String rule, CgmValue value, String notification, Urgency urgency,
+                    boolean filtered);
+
+    }
+
+    private final String config;
+
+    private final String[] processorSpecs;
+
+    private final CgmValueProcessor[] processors;
+
+    // filters per processor
+    private final NotificationFilter[][] filters;
+
+    // all created filters by specification, for reuse
+    private final Map<String, NotificationFilter> filtersBySpec;
+
+    // state of one processor while saving, reused for every save
+    private final StateBuffer stateBuffer = new StateBuffer();
+
+    private final DataOutputStream stateOut = new DataOutputStream(stateBuffer);
+
+    private Pipeline(String config, String[] processorSpecs, CgmValueProcessor[] processors,
+                     NotificationFilter[][] filters, Map<String, NotificationFilter> filtersBySpec) {
+        this.config = config;
+        this.processorSpecs = processorSpecs;
+        this.processors = processors;
+        this.filters = filters;
+        this.filtersBySpec = filtersBySpec;
+    }
+
+    /***
+     * Compiles a pipeline configuration.
+     * @param config rule configuration
+     * @param factory factory for processors and filters
+     * @param previous previous pipeline to reuse stages from, may be null
+     * @return compiled pipeline
+     * @throws IllegalArgumentException if the configuration is not valid
+     */
+    public static Pipeline compile(String config, StageFactory factory, Pipeline previous) {
+        final String[] rules = config.trim().split("\\s*[\\n;]+\\s*");
+        int count = 0;
+        for(String rule : rules) {
+            if(!rule.isEmpty()) {
+                count++;
+            }
+        }
+
+        final String[] processorSpecs = new String[count];
+        final CgmValueProcessor[] processors = new CgmValueProcessor[count];
+        final NotificationFilter[][] filters = new NotificationFilter[count][];
+        final Map<String, NotificationFilter> filtersBySpec = new HashMap<>();
+
+        int i = 0;
+        for(String rule : rules) {
+            if(rule.isEmpty()) {
+                continue;
+            }
+            final String[] specs = rule.split("\\s*>\\s*");
+
+            final String processorSpec = normalize(specs[0]);
+            CgmValueProcessor processor = previous != null ? previous.findProcessor(processorSpec) : null;
+            if(processor == null || contains(processors, i, processor)) {
+                processor = factory.createProcessor(name(processorSpec), args(processorSpec));
+            }
+            processorSpecs[i] = processorSpec;
+            processors[i] = processor;
+
+            filters[i] = new NotificationFilter[specs.length - 1];
+            for(int j = 1; j < specs.length; j++) {
+                final String filterSpec = normalize(specs[j]);
+                NotificationFilter filter = filtersBySpec.get(filterSpec);
+                if(filter == null && previous != null) {
+                    filter = previous.filtersBySpec.get(filterSpec);
+                }
+                if(filter == null) {
+                    filter = factory.createFilter(name(filterSpec), args(filterSpec));
+                }
+                filtersBySpec.put(filterSpec, filter);
+                filters[i][j - 1] = filter;
+            }
+            i++;
+        }
+
+        return new Pipeline(config, processorSpecs, processors, filters, filtersBySpec);
+    }
+
+    /***
+     * Runs a value through all rules.
+     * @param value CGM value
+     * @param output output for generated notifications
+     */
+    public void process(CgmValue value, Output output) {
+        for(int i = 0; i < processors.length; i++) {
+            final String notification = processors[i].process(value);
+            if(notification == null) {
+                continue;
+            }
+
+            // check filters, display if no filter is positive
+            boolean filtered = false;
+            final NotificationFilter[] ruleFilters = filters[i];
+            for(int j = 0; j < ruleFilters.length; j++) {
+                if(ruleFilters[j].filter(value, notification)) {
+                    filtered = true;
+                    break;
+                }
+            }
+            output.output(processorSpecs[i], value, notification, processors[i].getUrgency(),
+                    filtered);
+        }
+    }
+
+    /***
+     * Writes the state of all processors, each with its specification and length, so the state of
+     * processors not in the pipeline anymore can be skipped when restoring.
+     * @param out output to write to
+     * @throws IOException if writing fails
+     */
+    public void saveState(DataOutput out) throws IOException {
+        out.writeInt(STATE_VERSION);
+        out.writeInt(processors.length);
+        for(int i = 0; i < processors.length; i++) {
+            stateBuffer.reset();
+            processors[i].saveState(stateOut);
+            stateOut.flush();
+            out.writeUTF(processorSpecs[i]);
+            out.writeInt(stateBuffer.size());
+            stateBuffer.writeTo(out);
+        }
+    }
+
+    /***
+     * Restores the state of the processors with the same specification as when the state was saved.
+     * Processors whose state cannot be read keep their initial state.
+     * @param in input to read from
+     * @throws IOException if the state is not valid
+     */
+    public void restoreState(DataInput in) throws IOException {
+        if(in.readInt() != STATE_VERSION) {
+            throw new IOException("Unknown state version");
+        }
+        final int count = in.readInt();
+        for(int i = 0; i < count; i++) {
+            final String spec = in.readUTF();
+            final byte[] state = new byte[in.readInt()];
+            in.readFully(state);
+            final CgmValueProcessor processor = findProcessor(spec);
+            if(processor == null) {
+                continue;
+            }
+            try {
+                processor.restoreState(new DataInputStream(new ByteArrayInputStream(state)));
+            } catch(IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /***
+     * @return the configuration this pipeline was compiled from
+     */
+    public String getConfig() {
+        return config;
+    }
+
+    private CgmValueProcessor findProcessor(String spec) {
+        for(int i = 0; i < processorSpecs.length; i++) {
+            if(processorSpecs[i].equals(spec)) {
+                return processors[i];
+            }
+        }
+        return null;
+    }
+
+    private static boolean contains(CgmValueProcessor[] processors, int count, CgmValueProcessor processor) {
+        for(int i = 0; i < count; i++) {
+            if(processors[i] == processor) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String normalize(String spec) {
+        final String normalized = spec.replaceAll("\\s+", "");
+        if(normalized.isEmpty()) {
+            throw new IllegalArgumentException("Empty stage in rule");
+        }
+        return normalized;
+    }
+
+    private static String name(String spec) {
+        final int colon = spec.indexOf(':');
+        return colon < 0 ? spec : spec.substring(0, colon);
+    }
+
+    private static String[] args(String spec) {
+        final int colon = spec.indexOf(':');
+        if(colon < 0 || colon == spec.length() - 1) {
+            return new String[0];
+        }
+        return spec.substring(colon + 1).split(",");
+    }
+
+    /***
+     * Byte array output stream that writes its content without copying it.
+     */
+    private static final class StateBuffer extends ByteArrayOutputStream {
+
+        void writeTo(DataOutput out) throws IOException {
+            out.write(buf, 0, count);
+        }
+    }
+}
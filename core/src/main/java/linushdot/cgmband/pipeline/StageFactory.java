@@ -0,0 +1,29 @@
+package linushdot.cgmband.pipeline;
+
+import linushdot.cgmband.CgmValueProcessor;
+import linushdot.cgmband.NotificationFilter;
+
+/***
+ * Creates the processors and filters referenced by name in a pipeline configuration.
+ */
+public interface StageFactory {
+
+    /***
+     * Creates a processor
+     * @param name processor name
+     * @param args arguments given in the configuration, empty if none
+     * @return new processor
+     * @throws IllegalArgumentException if the name or arguments are not valid
+     */
+    CgmValueProcessor createProcessor(String name, String[] args);
+
+    /***
+     * Creates a filter
+     * @param name filter name
+     * @param args arguments given in the configuration, empty if none
+     * @return new filter
+     * @throws IllegalArgumentException if the name or arguments are not valid
+     */
+    NotificationFilter createFilter(String name, String[] args);
+
+}
@@ -0,0 +1,379 @@
+package linushdot.cgmband.processors;
+
+import java.text.DecimalFormatSymbols;
+import java.util.Arrays;
+import java.util.Locale;
+
+import linushdot.cgmband.CgmValue;
+
+/***
+ * Compiled template for the band message of the {@link RelativeDeltaProcessor}.
+ *
+ * Placeholders:
+ * - {value}: the new value
+ * - {unit}: unit of the new value
+ * - {sign}: '+', '-' or ' ' for the change since the last message
+ * - {delta}: absolute change since the last message
+ * - {minutes}: minutes since the last message
+ * - {arrow}: trend arrow of the average rate since the last message (see {@link TrendProcessor})
+ *
+ * The part in square brackets is only rendered if there is a last message, the change placeholders
+ * are empty outside of it for the first message. A backslash escapes the next character, "\n" is a
+ * line break.
+ *
+ * The template is parsed once into a list of operations, rendering appends to a given string builder
+ * without formatting through {@link String#format}. Values are displayed as integer with ASCII digits
+ * if they have no fraction (mg/dL) and with 2 decimal places otherwise (mmol/L), using the decimal
+ * separator and digits of the locale the template was compiled for, as the messages were before.
+ * The number formatting is available to the other processors as {@link Numbers}.
+ */
+public final class MessageTemplate {
+
+    /***
+     * Template of the messages before templates were configurable.
+     */
+    public static final String DEFAULT = "{value} {unit}[\n{sign}{delta}/{minutes}m]";
+
+    /***
+     * Provides the current template.
+     */
+    public interface Source {
+
+        MessageTemplate getTemplate();
+
+    }
+
+    private static final int OP_LITERAL = 0;
+    private static final int OP_VALUE   = 1;
+    private static final int OP_UNIT    = 2;
+    private static final int OP_SIGN    = 3;
+    private static final int OP_DELTA   = 4;
+    private static final int OP_MINUTES = 5;
+    private static final int OP_ARROW   = 6;
+    private static final int OP_SECTION = 7;
+
+    private static final String[] PLACEHOLDERS =
+            {null, "value", "unit", "sign", "delta", "minutes", "arrow"};
+
+    private final String template;
+
+    // pairs of operation and argument (literal index or end of the section)
+    private final int[] ops;
+
+    private final String[] literals;
+
+    private final Numbers numbers;
+
+    private MessageTemplate(String template, int[] ops, String[] literals, Locale locale) {
+        this.template = template;
+        this.ops = ops;
+        this.literals = literals;
+        this.numbers = Numbers.of(locale);
+    }
+
+    /***
+     * Compiles a template for the default locale.
+     * @param template template, see class description
+     * @return compiled template
+     * @throws IllegalArgumentException if the template is not valid
+     */
+    public static MessageTemplate compile(String template) {
+        return compile(template, Locale.getDefault());
+    }
+
+    /***
+     * Compiles a template.
+     * @param template template, see class description
+     * @param locale locale of the numbers
+     * @return compiled template
+     * @throws IllegalArgumentException if the template is not valid
+     */
+    public static MessageTemplate compile(String template, Locale locale) {
+        int[] ops = new int[16];
+        int size = 0;
+        String[] literals = new String[8];
+        int literalCount = 0;
+        int section = -1;
+        int sectionStart = -1;
+
+        final StringBuilder literal = new StringBuilder();
+        int i = 0;
+        while(i <= template.length()) {
+            final char c = i < template.length() ? template.charAt(i) : 0;
+            if(i < template.length() && c == '\\') {
+                if(i + 1 == template.length()) {
+                    throw new IllegalArgumentException("Incomplete escape at end of template");
+                }
+                final char escaped = template.charAt(i + 1);
+                literal.append(escaped == 'n' ? '\n' : escaped);
+                i += 2;
+                continue;
+            }
+            if(i < template.length() && c != '{' && c != '[' && c != ']') {
+                literal.append(c);
+                i++;
+                continue;
+            }
+
+            // flush the literal before a placeholder, section or the end
+            if(literal.length() > 0) {
+                if(literalCount == literals.length) {
+                    literals = Arrays.copyOf(literals, literalCount * 2);
+                }
+                literals[literalCount] = literal.toString();
+                literal.setLength(0);
+                if(size + 2 > ops.length) {
+                    ops = Arrays.copyOf(ops, ops.length * 2);
+                }
+                ops[size++] = OP_LITERAL;
+                ops[size++] = literalCount++;
+            }
+            if(i == template.length()) {
+                break;
+            }
+
+            if(size + 2 > ops.length) {
+                ops = Arrays.copyOf(ops, ops.length * 2);
+            }
+            if(c == '[') {
+                if(section >= 0) {
+                    throw new IllegalArgumentException("Nested section at " + i);
+                }
+                section = size;
+                sectionStart = i;
+                ops[size++] = OP_SECTION;
+                ops[size++] = 0;
+                i++;
+            } else if(c == ']') {
+                if(section < 0) {
+                    throw new IllegalArgumentException("Unexpected ']' at " + i);
+                }
+                ops[section + 1] = size;
+                section = -1;
+                i++;
+            } else {
+                final int end = template.indexOf('}', i);
+                if(end < 0) {
+                    throw new IllegalArgumentException("Unclosed placeholder at " + i);
+                }
+                ops[size++] = findPlaceholder(template.substring(i + 1, end));
+                ops[size++] = 0;
+                i = end + 1;
+            }
+        }
+        if(section >= 0) {
+            throw new IllegalArgumentException("Unclosed section at " + sectionStart);
+        }
+        return new MessageTemplate(template, Arrays.copyOf(ops, size),
+                Arrays.copyOf(literals, literalCount), locale);
+    }
+
+    private static int findPlaceholder(String name) {
+        for(int op = OP_VALUE; op < PLACEHOLDERS.length; op++) {
+            if(PLACEHOLDERS[op].equals(name)) {
+                return op;
+            }
+        }
+        throw new IllegalArgumentException("Unknown placeholder {" + name + "}");
+    }
+
+    /***
+     * @param template compiled template
+     * @return source always providing the given template
+     */
+    public static Source constant(final MessageTemplate template) {
+        return new Source() {
+            @Override
+            public MessageTemplate getTemplate() {
+                return template;
+            }
+        };
+    }
+
+    /***
+     * @return template string this template was compiled from
+     */
+    public String getTemplate() {
+        return template;
+    }
+
+    /***
+     * Renders the message for a value.
+     * @param sb builder the message is appended to
+     * @param next new value
+     * @param previous last displayed value, null for the first message
+     */
+    public void render(StringBuilder sb, CgmValue next, CgmValue previous) {
+        final float valdiff = previous != null ? next.getValue() - previous.getValue() : 0;
+        final long timediff = previous != null ? next.getTime() - previous.getTime() : 0;
+
+        for(int i = 0; i < ops.length; i += 2) {
+            switch(ops[i]) {
+                case OP_LITERAL:
+                    sb.append(literals[ops[i + 1]]);
+                    break;
+                case OP_VALUE:
+                    numbers.appendValue(sb, next.getValue());
+                    break;
+                case OP_UNIT:
+                    sb.append(next.getUnit());
+                    break;
+                case OP_SIGN:
+                    if(previous != null) {
+                        sb.append(valdiff > 0 ? '+' : valdiff < 0 ? '-' : ' ');
+                    }
+                    break;
+                case OP_DELTA:
+                    if(previous != null) {
+                        numbers.appendValue(sb, Math.abs(valdiff));
+                    }
+                    break;
+                case OP_MINUTES:
+                    if(previous != null) {
+                        numbers.appendLong(sb, Math.round((double) timediff / 60000.0));
+                    }
+                    break;
+                case OP_ARROW:
+                    if(previous != null && timediff > 0) {
+                        final double slope = valdiff * 60000.0 / timediff;
+                        sb.append(TrendProcessor.getArrow(next.getUnitType().toMgdl(slope)));
+                    }
+                    break;
+                case OP_SECTION:
+                    if(previous == null) {
+                        i = ops[i + 1] - 2; // skip to the end of the section
+                    }
+                    break;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return template;
+    }
+
+    /***
+     * Formats numbers like {@link String#format} with the decimal separator and digits of a locale,
+     * appending to a string builder without allocating. Fractions are rounded half up.
+     *
+     * Instances are immutable and can be shared between threads.
+     */
+    public static final class Numbers {
+
+        private static final long[] POWERS = {1, 10, 100, 1000, 10000, 100000, 1000000};
+
+        // a product with the scale is off a tie by rounding errors only within this distance
+        private static final double TIE_TOLERANCE = 1e-9;
+
+        private static volatile Numbers defaultNumbers;
+
+        private final Locale locale;
+
+        private final char decimalSeparator;
+
+        private final char zeroDigit;
+
+        private Numbers(Locale locale) {
+            this.locale = locale;
+            final DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(locale);
+            this.decimalSeparator = symbols.getDecimalSeparator();
+            this.zeroDigit = symbols.getZeroDigit();
+        }
+
+        /***
+         * @param locale locale of the numbers
+         * @return formatter for the locale
+         */
+        public static Numbers of(Locale locale) {
+            return new Numbers(locale);
+        }
+
+        /***
+         * @return formatter for the current default locale, only created again when the default
+         * locale changes
+         */
+        public static Numbers getDefault() {
+            final Locale locale = Locale.getDefault();
+            Numbers numbers = defaultNumbers;
+            if(numbers == null || !numbers.locale.equals(locale)) {
+                numbers = new Numbers(locale);
+                defaultNumbers = numbers;
+            }
+            return numbers;
+        }
+
+        /***
+         * Appends a CGM value as integer with ASCII digits if it has no fraction (like
+         * {@link Integer#toString()}), otherwise like "%.2f".
+         * @param sb builder to append to
+         * @param value value
+         */
+        public void appendValue(StringBuilder sb, float value) {
+            if(value % 1.0 == 0) {
+                // whole numbers always with ASCII digits, like Integer.toString
+                appendDigits(sb, (long) value, '0');
+                return;
+            }
+            appendFixed(sb, value, 2, false);
+        }
+
+        /***
+         * Appends a number with a fixed number of decimal places, like "%.nf" or "%+.nf".
+         * @param sb builder to append to
+         * @param value finite value
+         * @param decimals decimal places, 0 to 6
+         * @param plusSign true to prefix positive values with '+'
+         */
+        public void appendFixed(StringBuilder sb, double value, int decimals, boolean plusSign) {
+            if(Double.compare(value, 0.0) < 0) {
+                sb.append('-');
+            } else if(plusSign) {
+                sb.append('+');
+            }
+            final long scale = POWERS[decimals];
+            final double scaled = Math.abs(value) * scale;
+            long rounded = (long) scaled;
+            if(scaled - rounded >= 0.5 - TIE_TOLERANCE * Math.max(1, scaled)) {
+                rounded++;
+            }
+            appendDigits(sb, rounded / scale, zeroDigit);
+            if(decimals > 0) {
+                sb.append(decimalSeparator);
+                long fraction = rounded % scale;
+                for(long digit = scale / 10; digit > 0; digit /= 10) {
+                    sb.append((char) (zeroDigit + (int) (fraction / digit)));
+                    fraction %= digit;
+                }
+            }
+        }
+
+        /***
+         * Appends an integer with the digits of the locale, like "%d".
+         * @param sb builder to append to
+         * @param value value
+         */
+        public void appendLong(StringBuilder sb, long value) {
+            appendDigits(sb, value, zeroDigit);
+        }
+
+        private static void appendDigits(StringBuilder sb, long value, char zero) {
+            if(value < 0) {
+                sb.append('-');
+                value = -value;
+            }
+            final int start = sb.length();
+            do {
+                sb.append((char) (zero + (int) (value % 10)));
+                value /= 10;
+            } while(value > 0);
+
+            // digits were appended in reverse order
+            for(int i = start, j = sb.length() - 1; i < j; i++, j--) {
+                final char c = sb.charAt(i);
+                sb.setCharAt(i, sb.charAt(j));
+                sb.setCharAt(j, c);
+            }
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package linushdot.cgmband.processors;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import linushdot.cgmband.CgmUnit;
+import linushdot.cgmband.CgmValue;
+import linushdot.cgmband.CgmValueProcessor;
+import linushdot.cgmband.ReadingBuffer;
+import linushdot.cgmband.Urgency;
+
+/***
+ * Alerts on predicted low or high values.
+ *
+ * A Kalman filter with a constant velocity model estimates the current value and its rate of change
+ * (in mg/dL and mg/dL/min). Each new reading updates the estimate in constant time, the estimate is
+ * then projected a fixed time ahead. If the projection is below the low or above the high threshold
+ * an alert is generated, repeated at most every few minutes while the condition lasts. The condition
+ * ends when the projection is back inside the thresholds by a small margin.
+ */
+public class PredictiveAlertProcessor implements CgmValueProcessor {
+
+    // variance of the acceleration (mg/dL/min^2)^2
+    private static final double PROCESS_NOISE = 0.02;
+
+    // variance of a reading (mg/dL)^2
+    private static final double MEASUREMENT_NOISE = 25;
+
+    // variance of the velocity after a reset (mg/dL/min)^2
+    private static final double INITIAL_VELOCITY_VARIANCE = 4;
+
+    // the estimate is reset after a gap longer than this (ms)
+    private static final long MAX_GAP = 30 * 60 * 1000;
+
+    // margin for ending an alert condition (mg/dL)
+    private static final double CLEAR_MARGIN = 5;
+
+    private static final int STATE_NONE = 0;
+    private static final int STATE_LOW = 1;
+    private static final int STATE_HIGH = 2;
+
+    private final ReadingBuffer readings;
+
+    private final double low;
+
+    private final double high;
+
+    private final double horizon;
+
+    private final long repeatInterval;
+
+    // reused for building the messages
+    private final StringBuilder text = new StringBuilder();
+
+    // estimate: value (mg/dL), velocity (mg/dL/min) and covariance
+    private double x;
+    private double v;
+    private double p00;
+    private double p01;
+    private double p11;
+
+    private long lastTime = Long.MIN_VALUE;
+
+    private int state = STATE_NONE;
+
+    private long lastAlertTime;
+
+    /***
+     * Creates a new predictive alert processor with the parameters:
+     * low = 70 mg/dL
+     * high = 250 mg/dL
+     * horizonMins = 20
+     * repeatMins = 30
+     * @param readings shared recent readings
+     */
+    public PredictiveAlertProcessor(ReadingBuffer readings) {
+        this(readings, 70, 250, 20, 30);
+    }
+
+    /***
+     * Creates a new predictive alert processor.
+     * @param readings shared recent readings
+     * @param lowMgdl low threshold in mg/dL
+     * @param highMgdl high threshold in mg/dL
+     * @param horizonMins prediction horizon in minutes (15..30 recommended)
+     * @param repeatMins minimum time between two alerts of the same condition in minutes
+     */
+    public PredictiveAlertProcessor(ReadingBuffer readings, double lowMgdl, double highMgdl,
+                                    long horizonMins, long repeatMins) {
+        this.readings = readings;
+        this.low = lowMgdl;
+        this.high = highMgdl;
+        this.horizon = horizonMins;
+        this.repeatInterval = repeatMins * 60 * 1000;
+    }
+
+    @Override
+    public String process(CgmValue value) {
+        if(readings.size() == 0 || readings.getTime(0) == lastTime) {
+            return null; // repost, estimate unchanged
+        }
+
+        final CgmUnit unit = value.getUnitType();
+        final boolean mmol = unit == CgmUnit.MMOL_L;
+        final long time = readings.getTime(0);
+        final double z = unit.toMgdl(readings.getValue(0));
+
+        if(lastTime == Long.MIN_VALUE || time - lastTime > MAX_GAP) {
+            reset(z);
+        } else {
+            predict((time - lastTime) / 60000.0);
+            update(z);
+        }
+        lastTime = time;
+
+        final double predicted = getPrediction();
+        final int next;
+        if(predicted < low) {
+            next = STATE_LOW;
+        } else if(predicted > high) {
+            next = STATE_HIGH;
+        } else if(state == STATE_LOW && predicted < low + CLEAR_MARGIN ||
+                state == STATE_HIGH && predicted > high - CLEAR_MARGIN) {
+            next = state; // not clearly back in range yet
+        } else {
+            next = STATE_NONE;
+        }
+
+        final boolean alert = next != STATE_NONE &&
+                (next != state || time - lastAlertTime >= repeatInterval);
+        state = next;
+        if(!alert) {
+            return null;
+        }
+        lastAlertTime = time;
+
+        final MessageTemplate.Numbers numbers = MessageTemplate.Numbers.getDefault();
+        text.setLength(0);
+        numbers.appendValue(text, value.getValue());
+        text.append(' ').append(value.getUnit()).append('\n')
+                .append(state == STATE_LOW ? "LOW" : "HIGH").append(' ');
+        numbers.appendFixed(text, unit.fromMgdl(predicted), mmol ? 1 : 0, false);
+        text.append(" in ");
+        numbers.appendLong(text, Math.round(horizon));
+        text.append('m');
+        return text.toString();
+    }
+
+    /***
+     * Predicted lows are urgent, highs are not.
+     */
+    @Override
+    public Urgency getUrgency() {
+        return state == STATE_LOW ? Urgency.URGENT : Urgency.ELEVATED;
+    }
+
+    @Override
+    public void saveState(DataOutput out) throws IOException {
+        out.writeLong(lastTime);
+        out.writeDouble(x);
+        out.writeDouble(v);
+        out.writeDouble(p00);
+        out.writeDouble(p01);
+        out.writeDouble(p11);
+        out.writeByte(state);
+        out.writeLong(lastAlertTime);
+    }
+
+    @Override
+    public void restoreState(DataInput in) throws IOException {
+        final long time = in.readLong();
+        final double x = in.readDouble();
+        final double v = in.readDouble();
+        final double p00 = in.readDouble();
+        final double p01 = in.readDouble();
+        final double p11 = in.readDouble();
+        final int state = in.readByte();
+        final long lastAlertTime = in.readLong();
+        this.lastTime = time;
+        this.x = x;
+        this.v = v;
+        this.p00 = p00;
+        this.p01 = p01;
+        this.p11 = p11;
+        this.state = state;
+        this.lastAlertTime = lastAlertTime;
+    }
+
+    /***
+     * @return value projected by the prediction horizon in mg/dL, NaN if there is no estimate
+     */
+    public double getPrediction() {
+        if(lastTime == Long.MIN_VALUE) {
+            return Double.NaN;
+        }
+        return x + v * horizon;
+    }
+
+    private void reset(double z) {
+        x = z;
+        v = 0;
+        p00 = MEASUREMENT_NOISE;
+        p01 = 0;
+        p11 = INITIAL_VELOCITY_VARIANCE;
+    }
+
+    /***
+     * Moves the estimate forward in time
+     * @param dt time difference in minutes
+     */
+    private void predict(double dt) {
+        final double dt2 = dt * dt;
+        x += v * dt;
+        p00 += dt * (2 * p01 + dt * p11) + PROCESS_NOISE * dt2 * dt2 / 4;
+        p01 += dt * p11 + PROCESS_NOISE * dt2 * dt / 2;
+        p11 += PROCESS_NOISE * dt2;
+    }
+
+    /***
+     * Corrects the estimate with a reading
+     * @param z reading in mg/dL
+     */
+    private void update(double z) {
+        final double y = z - x;
+        final double s = p00 + MEASUREMENT_NOISE;
+        final double k0 = p00 / s;
+        final double k1 = p01 / s;
+        x += k0 * y;
+        v += k1 * y;
+        p11 -= k1 * p01;
+        p01 -= k0 * p01;
+        p00 -= k0 * p00;
+    }
+}
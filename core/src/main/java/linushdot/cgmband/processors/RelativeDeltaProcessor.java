@@ -1,6 +1,8 @@
 package linushdot.cgmband.processors;
 
-import java.util.Locale;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
 import linushdot.cgmband.CgmValue;
 import linushdot.cgmband.CgmValueProcessor;
@@ -11,15 +13,27 @@ import linushdot.cgmband.CgmValueProcessor;
  * percent).
  *
  * Also a maximum time difference can be set, forcing a notification at least every x minutes.
+ *
+ * The message is rendered by the current {@link MessageTemplate} of the template source.
  */
 public class RelativeDeltaProcessor implements CgmValueProcessor {
 
+    public static final String KEY_MESSAGE_TEMPLATE = "message_template";
+
+    private static final MessageTemplate.Source DEFAULT_TEMPLATE =
+            MessageTemplate.constant(MessageTemplate.compile(MessageTemplate.DEFAULT));
+
     private final double minDelta;
 
     private final double maxDelta;
 
     private final long maxTimeDiff;
 
+    private final MessageTemplate.Source templates;
+
+    // reused for rendering the messages
+    private final StringBuilder text = new StringBuilder();
+
     private CgmValue lastSentValue;
 
     /***
@@ -32,6 +46,7 @@ public class RelativeDeltaProcessor implements CgmValueProcessor {
         this.minDelta = 0.1;
         this.maxDelta = 0.1;
         this.maxTimeDiff = 119 * 60 * 1000;
+        this.templates = DEFAULT_TEMPLATE;
     }
 
     /***
@@ -41,16 +56,29 @@ public class RelativeDeltaProcessor implements CgmValueProcessor {
      * @param maxTimeDiffMins maximum time difference in minutes
      */
     public RelativeDeltaProcessor(double minDelta, double maxDelta, long maxTimeDiffMins) {
+        this(minDelta, maxDelta, maxTimeDiffMins, DEFAULT_TEMPLATE);
+    }
+
+    /***
+     * Creates new relative delta processor.
+     * @param minDelta decrease in percent (0..0%, 1..100%)
+     * @param maxDelta increase in percent (0..0%, 1..100%)
+     * @param maxTimeDiffMins maximum time difference in minutes
+     * @param templates source of the message template
+     */
+    public RelativeDeltaProcessor(double minDelta, double maxDelta, long maxTimeDiffMins,
+                                  MessageTemplate.Source templates) {
         this.minDelta = minDelta;
         this.maxDelta = maxDelta;
         this.maxTimeDiff = maxTimeDiffMins * 60 * 1000;
+        this.templates = templates;
     }
 
     @Override
     public String process(CgmValue value) {
         if(lastSentValue == null) {
             lastSentValue = value;
-            return getNotificationText(value);
+            return getNotificationText(null, value);
         }
 
         final long timediff = value.getTime() - lastSentValue.getTime();
@@ -72,47 +100,35 @@ public class RelativeDeltaProcessor implements CgmValueProcessor {
         return null;
     }
 
-    private String getNotificationText(CgmValue first) {
-        return String.format(Locale.getDefault(),
-                "%s %s",
-                formatFloat(first.getValue()), first.getUnit());
+    @Override
+    public void saveState(DataOutput out) throws IOException {
+        out.writeBoolean(lastSentValue != null);
+        if(lastSentValue != null) {
+            out.writeLong(lastSentValue.getTime());
+            out.writeFloat(lastSentValue.getValue());
+            out.writeUTF(lastSentValue.getUnit());
+        }
+    }
+
+    @Override
+    public void restoreState(DataInput in) throws IOException {
+        if(in.readBoolean()) {
+            final long time = in.readLong();
+            final float value = in.readFloat();
+            lastSentValue = new CgmValue(value, in.readUTF(), time);
+        }
     }
 
     /***
-     * Generates a message in the format "{value} {unit}\n{+-change}/{time} m"
-     * @param previous last displayed value
+     * Renders the message with the current template, by default in the format
+     * "{value} {unit}\n{+-change}/{time}m"
+     * @param previous last displayed value, null for the first message
      * @param next new value
      * @return notification message
      */
     private String getNotificationText(CgmValue previous, CgmValue next) {
-
-        final long timediff = next.getTime() - previous.getTime();
-        final long minutes = Math.round((double) timediff / 60000.0);
-
-        final float valdiff = next.getValue() - previous.getValue();
-        char sign = ' ';
-        if(valdiff > 0) {
-            sign = '+';
-        } else if(valdiff < 0) {
-            sign = '-';
-        }
-
-        return String.format(Locale.getDefault(),
-                "%s %s\n%c%s/%dm",
-                formatFloat(next.getValue()), next.getUnit(),
-                sign, formatFloat(Math.abs(valdiff)), minutes);
-    }
-
-    /***
-     * Formats float values to display either as integer (mg/dl) or as a float with 2 decimal places (mmol/l)
-     * @param value value to format
-     * @return formatted string
-     */
-    private String formatFloat(float value) {
-        if(value % 1.0 == 0) {
-            return Integer.toString((int) value);
-        } else {
-            return String.format(Locale.getDefault(), "%.2f", value);
-        }
+        text.setLength(0);
+        templates.getTemplate().render(text, next, previous);
+        return text.toString();
     }
 }
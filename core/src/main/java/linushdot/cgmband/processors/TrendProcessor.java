@@ -0,0 +1,237 @@
+package linushdot.cgmband.processors;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import linushdot.cgmband.CgmUnit;
+import linushdot.cgmband.CgmValue;
+import linushdot.cgmband.CgmValueProcessor;
+import linushdot.cgmband.ReadingBuffer;
+import linushdot.cgmband.Urgency;
+
+/***
+ * Processes values by their trend. The rate of change is the slope of a linear regression of the
+ * value against time over a sliding window of recent readings.
+ *
+ * The regression is kept as running sums, which are updated in constant time when a reading enters
+ * or leaves the window. Times are stored relative to the newest reading (in minutes), the sums are
+ * shifted when a new reading arrives to keep the numbers small.
+ *
+ * A notification with a direction arrow is generated when the direction changes. To avoid
+ * notifications caused by noise, the slope has to leave the range of the current direction by at
+ * least a small margin.
+ */
+public class TrendProcessor implements CgmValueProcessor {
+
+    // direction boundaries in mg/dL per minute
+    private static final double[] BOUNDARIES = {-3, -2, -1, 1, 2, 3};
+
+    // ⇊ ↓ ↘ → ↗ ↑ ⇈
+    private static final String[] ARROWS =
+            {"\u21ca", "\u2193", "\u2198", "\u2192", "\u2197", "\u2191", "\u21c8"};
+
+    private final ReadingBuffer readings;
+
+    private final long window;
+
+    private final int minReadings;
+
+    private final double margin;
+
+    // reused for building the messages
+    private final StringBuilder text = new StringBuilder();
+
+    // running sums of the readings in the window, times in minutes relative to origin
+    private int n;
+    private double sumT;
+    private double sumV;
+    private double sumTT;
+    private double sumTV;
+
+    private long origin;
+
+    // time of the newest reading added to the sums
+    private long lastTime = Long.MIN_VALUE;
+
+    private int direction = -1;
+
+    /***
+     * Creates a new trend processor with the parameters:
+     * windowMins = 15
+     * minReadings = 3
+     * margin = 0.25 mg/dL/min
+     * @param readings shared recent readings
+     */
+    public TrendProcessor(ReadingBuffer readings) {
+        this(readings, 15, 3, 0.25);
+    }
+
+    /***
+     * Creates a new trend processor.
+     * @param readings shared recent readings
+     * @param windowMins length of the regression window in minutes
+     * @param minReadings minimum number of readings in the window for a trend
+     * @param margin hysteresis around the direction boundaries in mg/dL/min
+     */
+    public TrendProcessor(ReadingBuffer readings, long windowMins, int minReadings, double margin) {
+        this.readings = readings;
+        this.window = windowMins * 60 * 1000;
+        this.minReadings = minReadings;
+        this.margin = margin;
+    }
+
+    @Override
+    public String process(CgmValue value) {
+        if(readings.size() == 0) {
+            return null;
+        }
+
+        final long newest = readings.getTime(0);
+        if(newest == lastTime) {
+            return null; // repost, trend unchanged
+        }
+        update(newest);
+
+        final double slope = getSlope();
+        if(Double.isNaN(slope)) {
+            return null;
+        }
+
+        final boolean mmol = value.getUnitType() == CgmUnit.MMOL_L;
+        final double slopeMgdl = value.getUnitType().toMgdl(slope);
+        final int candidate = classify(slopeMgdl);
+        if(candidate == direction || isNearDirection(slopeMgdl)) {
+            return null;
+        }
+        direction = candidate;
+
+        final MessageTemplate.Numbers numbers = MessageTemplate.Numbers.getDefault();
+        text.setLength(0);
+        numbers.appendValue(text, value.getValue());
+        text.append(' ').append(value.getUnit()).append(' ').append(ARROWS[direction]).append('\n');
+        numbers.appendFixed(text, slope, mmol ? 2 : 1, true);
+        text.append("/min");
+        return text.toString();
+    }
+
+    @Override
+    public Urgency getUrgency() {
+        return Urgency.ELEVATED;
+    }
+
+    /***
+     * Saves the displayed direction only, the sums are rebuilt from the recent readings.
+     */
+    @Override
+    public void saveState(DataOutput out) throws IOException {
+        out.writeByte(direction);
+    }
+
+    @Override
+    public void restoreState(DataInput in) throws IOException {
+        final int restored = in.readByte();
+        if(restored >= -1 && restored < ARROWS.length) {
+            direction = restored;
+        }
+    }
+
+    /***
+     * @return slope of the regression in value units per minute, NaN if there are not enough
+     * readings in the window
+     */
+    public double getSlope() {
+        if(n < minReadings) {
+            return Double.NaN;
+        }
+        final double denominator = n * sumTT - sumT * sumT;
+        if(denominator <= 1e-9) {
+            return Double.NaN;
+        }
+        return (n * sumTV - sumT * sumV) / denominator;
+    }
+
+    /***
+     * Adds the new readings to the sums and removes the ones that left the window.
+     * @param newest time of the newest reading
+     */
+    private void update(long newest) {
+        if(n > readings.size()) {
+            // readings in the window were overwritten, start over
+            reset();
+        }
+
+        final long from = newest - window;
+        final int added = readings.countSince(Math.max(lastTime + 1, from));
+
+        shift(newest);
+        for(int i = added - 1; i >= 0; i--) {
+            add(readings.getTime(i), readings.getValue(i), 1);
+        }
+        lastTime = newest;
+
+        // the oldest reading in the window has lookback n - 1
+        while(n > 0 && readings.getTime(n - 1) < from) {
+            add(readings.getTime(n - 1), readings.getValue(n - 1), -1);
+        }
+    }
+
+    private void add(long time, float value, int sign) {
+        final double t = (time - origin) / 60000.0;
+        n += sign;
+        sumT += sign * t;
+        sumV += sign * value;
+        sumTT += sign * t * t;
+        sumTV += sign * t * value;
+    }
+
+    /***
+     * Moves the time origin, adjusting the sums
+     * @param newOrigin new origin in ms since epoch
+     */
+    private void shift(long newOrigin) {
+        final double d = (newOrigin - origin) / 60000.0;
+        sumTT += -2 * d * sumT + n * d * d;
+        sumTV -= d * sumV;
+        sumT -= n * d;
+        origin = newOrigin;
+    }
+
+    private void reset() {
+        n = 0;
+        sumT = 0;
+        sumV = 0;
+        sumTT = 0;
+        sumTV = 0;
+        lastTime = Long.MIN_VALUE;
+    }
+
+    /***
+     * @param slopeMgdl slope in mg/dL/min
+     * @return true if the slope is within the margin around the range of the current direction
+     */
+    private boolean isNearDirection(double slopeMgdl) {
+        if(direction < 0) {
+            return false;
+        }
+        final double lower = direction == 0 ? Double.NEGATIVE_INFINITY : BOUNDARIES[direction - 1];
+        final double upper = direction == BOUNDARIES.length ? Double.POSITIVE_INFINITY : BOUNDARIES[direction];
+        return slopeMgdl >= lower - margin && slopeMgdl < upper + margin;
+    }
+
+    /***
+     * @param slopeMgdl slope in mg/dL/min
+     * @return arrow of the direction the slope falls into
+     */
+    public static String getArrow(double slopeMgdl) {
+        return ARROWS[classify(slopeMgdl)];
+    }
+
+    private static int classify(double slopeMgdl) {
+        int i = 0;
+        while(i < BOUNDARIES.length && slopeMgdl >= BOUNDARIES[i]) {
+            i++;
+        }
+        return i;
+    }
+}
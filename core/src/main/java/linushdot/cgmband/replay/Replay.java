@@ -0,0 +1,268 @@
+package linushdot.cgmband.replay;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import linushdot.cgmband.CgmUnit;
+import linushdot.cgmband.CgmValue;
+import linushdot.cgmband.ReadingBuffer;
+import linushdot.cgmband.Urgency;
+import linushdot.cgmband.filters.TimeOfDaySchedule;
+import linushdot.cgmband.history.HistoryStore;
+import linushdot.cgmband.pipeline.DefaultStageFactory;
+import linushdot.cgmband.pipeline.Pipeline;
+
+/***
+ * Replays a recorded trace through a pipeline as fast as possible, with a simulated clock set to
+ * the time of each reading.
+ *
+ * Reports the replay speed, the notifications per day and the alert latency for low episodes. A low
+ * episode starts with the first reading below the low threshold and ends with the next reading at
+ * or above it. Its latency is the time from the start of the episode to the first displayed
+ * {@link Urgency#URGENT} notification (a low alert of the predictive_alert processor), counting
+ * alerts up to {@link #LOOKAHEAD} before the start (negative latency). Routine notifications do not
+ * count as alerts, episodes without an alert are missed.
+ *
+ * Usage: Replay trace [--rules rules] [--windows schedule] [--zone id] [--low mg/dL]
+ */
+public class Replay {
+
+    public static final long LOOKAHEAD = 30 * 60 * 1000;
+
+    /***
+     * Results of a replay.
+     */
+    public static class Result {
+
+        public int readings;
+
+        public long firstTime;
+
+        public long lastTime;
+
+        public long wallNanos;
+
+        public int notifications;
+
+        public int filtered;
+
+        public int episodes;
+
+        public int missed;
+
+        // latency of each alerted episode in ms
+        public long[] latencies = new long[0];
+
+        public double getReadingsPerSecond() {
+            return wallNanos > 0 ? readings * 1e9 / wallNanos : Double.NaN;
+        }
+
+        public double getDays() {
+            return (lastTime - firstTime) / 86400000.0;
+        }
+
+        public double getNotificationsPerDay() {
+            return getDays() > 0 ? notifications / getDays() : Double.NaN;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder();
+            sb.append(String.format(Locale.ROOT, "readings:          %d (%.1f days)%n", readings, getDays()));
+            sb.append(String.format(Locale.ROOT, "replay:            %.1f ms, %.0f readings/s%n",
+                    wallNanos / 1e6, getReadingsPerSecond()));
+            sb.append(String.format(Locale.ROOT, "notifications:     %d displayed, %d filtered, %.2f per day%n",
+                    notifications, filtered, getNotificationsPerDay()));
+            sb.append(String.format(Locale.ROOT, "low episodes:      %d, %d missed%n", episodes, missed));
+            if(latencies.length > 0) {
+                final long[] sorted = latencies.clone();
+                Arrays.sort(sorted);
+                long sum = 0;
+                for(long latency : sorted) {
+                    sum += latency;
+                }
+                sb.append(String.format(Locale.ROOT, "alert latency:     mean %.1f min, median %.1f min, min %.1f min, max %.1f min%n",
+                        sum / (double) sorted.length / 60000.0, sorted[sorted.length / 2] / 60000.0,
+                        sorted[0] / 60000.0, sorted[sorted.length - 1] / 60000.0));
+            }
+            return sb.toString();
+        }
+    }
+
+    private final String rules;
+
+    private final TimeOfDaySchedule schedule;
+
+    private final TimeZone zone;
+
+    private final double lowMgdl;
+
+    /***
+     * Creates a new replay
+     * @param rules pipeline rules, see {@link Pipeline}
+     * @param schedule schedule of the time of day filter
+     * @param zone time zone of the simulated clock
+     * @param lowMgdl low threshold for the alert latency in mg/dL
+     */
+    public Replay(String rules, TimeOfDaySchedule schedule, TimeZone zone, double lowMgdl) {
+        this.rules = rules;
+        this.schedule = schedule;
+        this.zone = zone;
+        this.lowMgdl = lowMgdl;
+    }
+
+    /***
+     * Replays a trace, see {@link TraceReader} for the formats.
+     * @param trace trace file
+     * @return results
+     * @throws IOException if the trace cannot be read
+     * @throws IllegalArgumentException if the rules are not valid
+     */
+    public Result run(File trace) throws IOException {
+        final Result result = new Result();
+        final ReadingBuffer readings = new ReadingBuffer(288);
+        final SimulatedClock clock = new SimulatedClock(zone);
+        final Pipeline pipeline = Pipeline.compile(rules, new DefaultStageFactory(readings,
+                new TimeOfDaySchedule.Source() {
+                    @Override
+                    public TimeOfDaySchedule getSchedule() {
+                        return schedule;
+                    }
+                }, clock), null);
+
+        final LongList alertTimes = new LongList();
+        final LongList episodeStarts = new LongList();
+        final LongList episodeEnds = new LongList();
+
+        final Pipeline.Output output = new Pipeline.Output() {
+            @Override
+            public void output(String rule, CgmValue value, String notification,
+                               Urgency urgency, boolean filtered) {
+                if(filtered) {
+                    result.filtered++;
+                } else {
+                    result.notifications++;
+                    if(urgency == Urgency.URGENT) {
+                        alertTimes.add(value.getTime());
+                    }
+                }
+            }
+        };
+
+        final long start = System.nanoTime();
+        TraceReader.read(trace, new HistoryStore.Visitor() {
+            @Override
+            public void visit(long time, float value, int unit) {
+                if(!readings.add(time, value, CgmUnit.fromCode(unit))) {
+                    return; // not after the previous reading or out of range
+                }
+                clock.setTime(time);
+                pipeline.process(new CgmValue(value, CgmUnit.fromCode(unit), time), output);
+
+                if(result.readings == 0) {
+                    result.firstTime = time;
+                }
+                result.lastTime = time;
+                result.readings++;
+
+                final double mgdl = CgmUnit.fromCode(unit).toMgdl(value);
+                final boolean inEpisode = episodeStarts.size() > episodeEnds.size();
+                if(mgdl < lowMgdl && !inEpisode) {
+                    episodeStarts.add(time);
+                } else if(mgdl >= lowMgdl && inEpisode) {
+                    episodeEnds.add(time);
+                }
+            }
+        });
+        result.wallNanos = System.nanoTime() - start;
+        if(episodeStarts.size() > episodeEnds.size()) {
+            episodeEnds.add(result.lastTime);
+        }
+
+        // first alert from LOOKAHEAD before the start until the end of each episode
+        final LongList latencies = new LongList();
+        int n = 0;
+        for(int i = 0; i < episodeStarts.size(); i++) {
+            final long episodeStart = episodeStarts.get(i);
+            while(n < alertTimes.size() && alertTimes.get(n) < episodeStart - LOOKAHEAD) {
+                n++;
+            }
+            if(n < alertTimes.size() && alertTimes.get(n) <= episodeEnds.get(i)) {
+                latencies.add(alertTimes.get(n) - episodeStart);
+            } else {
+                result.missed++;
+            }
+        }
+        result.episodes = episodeStarts.size();
+        result.latencies = latencies.toArray();
+        return result;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if(args.length == 0) {
+            System.err.println("Usage: Replay trace [--rules rules] [--windows schedule] [--zone id] [--low mg/dL]");
+            System.exit(1);
+        }
+
+        String rules = Pipeline.DEFAULT_CONFIG;
+        TimeOfDaySchedule schedule = TimeOfDaySchedule.ALWAYS;
+        TimeZone zone = TimeZone.getDefault();
+        double low = 70;
+        for(int i = 1; i < args.length; i += 2) {
+            if(i + 1 == args.length) {
+                throw new IllegalArgumentException("Missing value for " + args[i]);
+            }
+            switch(args[i]) {
+                case "--rules":
+                    rules = args[i + 1];
+                    break;
+                case "--windows":
+                    schedule = TimeOfDaySchedule.parse(args[i + 1]);
+                    break;
+                case "--zone":
+                    zone = TimeZone.getTimeZone(args[i + 1]);
+                    break;
+                case "--low":
+                    low = Double.parseDouble(args[i + 1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        final Result result = new Replay(rules, schedule, zone, low).run(new File(args[0]));
+        System.out.print(result);
+    }
+
+    /***
+     * Growable list of primitive longs.
+     */
+    private static final class LongList {
+
+        private long[] values = new long[64];
+
+        private int size;
+
+        void add(long value) {
+            if(size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        long get(int index) {
+            return values[index];
+        }
+
+        int size() {
+            return size;
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
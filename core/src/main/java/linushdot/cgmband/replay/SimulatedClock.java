@@ -0,0 +1,33 @@
+package linushdot.cgmband.replay;
+
+import java.util.TimeZone;
+
+import linushdot.cgmband.Clock;
+
+/***
+ * Clock with a time set by the replay, in a fixed time zone.
+ */
+public class SimulatedClock implements Clock {
+
+    private final TimeZone zone;
+
+    private long time;
+
+    public SimulatedClock(TimeZone zone) {
+        this.zone = zone;
+    }
+
+    public void setTime(long time) {
+        this.time = time;
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return time;
+    }
+
+    @Override
+    public TimeZone getTimeZone() {
+        return zone;
+    }
+}
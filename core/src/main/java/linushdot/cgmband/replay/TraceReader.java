@@ -0,0 +1,101 @@
+package linushdot.cgmband.replay;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+
+import linushdot.cgmband.CgmUnit;
+import linushdot.cgmband.history.HistoryArchive;
+import linushdot.cgmband.history.HistoryStore;
+
+/***
+ * Reads recorded CGM traces for the replay.
+ *
+ * Supported formats:
+ * - CSV with the columns time, value and unit. The time is either in ms since epoch or an ISO-8601
+ *   instant (e.g. 2022-06-14T21:50:00Z). Lines that do not start with a time (e.g. a header) and
+ *   empty lines are skipped.
+ * - archives of the {@link HistoryArchive} (".cgmz")
+ * - history files of the {@link HistoryStore}, opened read-only
+ */
+public final class TraceReader {
+
+    private TraceReader() {
+    }
+
+    /***
+     * Reads a trace, the format is chosen by the file name (".csv" for CSV, ".cgmz" for archives,
+     * history otherwise).
+     * @param file trace file
+     * @param visitor visitor receiving the readings in order
+     * @return number of readings
+     * @throws IOException if the file cannot be read
+     */
+    public static int read(File file, HistoryStore.Visitor visitor) throws IOException {
+        final String name = file.getName().toLowerCase(Locale.ROOT);
+        if(name.endsWith(".csv")) {
+            return readCsv(file, visitor);
+        }
+        if(name.endsWith(".cgmz")) {
+            return HistoryArchive.read(new FileInputStream(file), Long.MIN_VALUE, Long.MAX_VALUE, visitor);
+        }
+        try(HistoryStore store = HistoryStore.openReadOnly(file)) {
+            return store.scan(Long.MIN_VALUE, Long.MAX_VALUE, visitor);
+        }
+    }
+
+    private static int readCsv(File file, HistoryStore.Visitor visitor) throws IOException {
+        int count = 0;
+        int lineNumber = 0;
+        try(BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while((line = reader.readLine()) != null) {
+                lineNumber++;
+                final String[] columns = line.split("[,;\\t]");
+                if(columns.length < 2) {
+                    continue;
+                }
+                final long time = parseTime(columns[0].trim());
+                if(time == Long.MIN_VALUE) {
+                    continue; // header or comment
+                }
+                final float value;
+                try {
+                    value = Float.parseFloat(columns[1].trim());
+                } catch(NumberFormatException e) {
+                    throw new IOException("Invalid value in line " + lineNumber + ": " + columns[1]);
+                }
+                final int unit = columns.length > 2
+                        ? CgmUnit.fromName(columns[2].trim()).getCode() : CgmUnit.MG_DL.getCode();
+                visitor.visit(time, value, unit);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static long parseTime(String column) {
+        if(column.isEmpty()) {
+            return Long.MIN_VALUE;
+        }
+        if(Character.isDigit(column.charAt(0)) && column.indexOf('T') < 0) {
+            try {
+                return Long.parseLong(column);
+            } catch(NumberFormatException e) {
+                return Long.MIN_VALUE;
+            }
+        }
+        try {
+            return Instant.parse(column).toEpochMilli();
+        } catch(DateTimeParseException e) {
+            return Long.MIN_VALUE;
+        }
+    }
+}
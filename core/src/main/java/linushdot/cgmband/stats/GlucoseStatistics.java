@@ -0,0 +1,410 @@
+package linushdot.cgmband.stats;
+
+import java.util.Arrays;
+import java.util.TimeZone;
+
+import linushdot.cgmband.CgmUnit;
+import linushdot.cgmband.Clock;
+
+/***
+ * Incremental glucose statistics over the current day and the last {@link #WINDOWS} days.
+ *
+ * Each reading is added once. For every window the engine keeps exact running sums (count, sum and
+ * sum of squares in 0.1 mg/dL, counts per glucose range) and a histogram per hour of day with
+ * {@link #BIN_WIDTH} mg/dL bins. Histograms are mergeable sketches, the AGP percentiles are read
+ * from them by a cumulative scan of the bins. When a day leaves a window, its readings (kept per
+ * day in compact form) are subtracted again. Reading a summary costs a few microseconds and does
+ * not depend on the number of readings.
+ *
+ * Days are local calendar days in the time zone of the clock. All values are in mg/dL. Methods are
+ * synchronized, readings can be added on one thread while another reads summaries.
+ */
+public class GlucoseStatistics {
+
+    /***
+     * Lengths of the windows in days: the current day, 14 and 90 days.
+     */
+    public static final int[] WINDOWS = {1, 14, 90};
+
+    public static final int DAYS = 90;
+
+    public static final int BIN_WIDTH = 2;
+
+    public static final int MIN_MGDL = 40;
+
+    public static final int MAX_MGDL = 400;
+
+    public static final int BINS = (MAX_MGDL - MIN_MGDL) / BIN_WIDTH;
+
+    private static final long DAY = 24 * 60 * 60 * 1000;
+
+    private static final long HOUR = 60 * 60 * 1000;
+
+    private final Clock clock;
+
+    private final Window[] windows = new Window[WINDOWS.length];
+
+    private final Day[] days = new Day[DAYS];
+
+    private long currentDay = Long.MIN_VALUE;
+
+    public GlucoseStatistics(Clock clock) {
+        this.clock = clock;
+        for(int i = 0; i < WINDOWS.length; i++) {
+            windows[i] = new Window(WINDOWS[i]);
+        }
+        for(int i = 0; i < DAYS; i++) {
+            days[i] = new Day();
+        }
+    }
+
+    /***
+     * Adds a reading. Readings older than {@link #DAYS} days before the newest reading are ignored.
+     * @param time time in ms since epoch
+     * @param value CGM value
+     * @param unit unit code, see {@link CgmUnit#getCode()}
+     */
+    public synchronized void add(long time, float value, int unit) {
+        final double mgdl = CgmUnit.fromCode(unit).toMgdl(value);
+        if(!(mgdl > 0) || mgdl > 10000) {
+            return; // not a glucose value
+        }
+        final long local = toLocal(time);
+        final long day = Math.floorDiv(local, DAY);
+        final int hour = (int) (Math.floorMod(local, DAY) / HOUR);
+
+        if(currentDay == Long.MIN_VALUE) {
+            currentDay = day;
+        } else if(day > currentDay) {
+            advance(day);
+        }
+
+        final long age = currentDay - day;
+        if(age >= DAYS) {
+            return;
+        }
+        final Day slot = days[(int) Math.floorMod(day, (long) DAYS)];
+        if(slot.day != day) {
+            slot.reset(day);
+        }
+        final int entry = entry(hour, (int) Math.round(mgdl * 10));
+        slot.add(entry);
+        for(Window window : windows) {
+            if(age < window.days) {
+                window.add(entry, 1);
+            }
+        }
+    }
+
+    /***
+     * Moves the current day forward, removing the days that leave the windows.
+     * @param day new current day
+     */
+    private void advance(long day) {
+        if(day - currentDay >= DAYS) {
+            clear();
+            currentDay = day;
+            return;
+        }
+        for(long d = currentDay + 1; d <= day; d++) {
+            for(Window window : windows) {
+                final Day leaving = days[(int) Math.floorMod(d - window.days, (long) DAYS)];
+                if(leaving.day == d - window.days) {
+                    for(int i = 0; i < leaving.size; i++) {
+                        window.add(leaving.entries[i], -1);
+                    }
+                }
+            }
+            days[(int) Math.floorMod(d, (long) DAYS)].reset(d);
+        }
+        currentDay = day;
+    }
+
+    /***
+     * Computes the summary of a window, ending at the current day of the clock. Days that left the
+     * window since the last reading are removed first.
+     * @param windowDays length of the window in days, one of {@link #WINDOWS}
+     * @return summary
+     * @throws IllegalArgumentException if there is no window of that length
+     */
+    public synchronized Summary getSummary(int windowDays) {
+        final long today = Math.floorDiv(toLocal(clock.currentTimeMillis()), DAY);
+        if(currentDay != Long.MIN_VALUE && today > currentDay) {
+            advance(today);
+        }
+        for(Window window : windows) {
+            if(window.days == windowDays) {
+                return window.summarize();
+            }
+        }
+        throw new IllegalArgumentException("No window of " + windowDays + " days");
+    }
+
+    public synchronized void clear() {
+        for(Window window : windows) {
+            window.clear();
+        }
+        for(Day slot : days) {
+            slot.reset(Long.MIN_VALUE);
+        }
+        currentDay = Long.MIN_VALUE;
+    }
+
+    private long toLocal(long time) {
+        final TimeZone zone = clock.getTimeZone();
+        return time + zone.getOffset(time);
+    }
+
+    // packs hour of day and value in 0.1 mg/dL
+    private static int entry(int hour, int tenths) {
+        return hour << 24 | Math.min(tenths, 0xffffff);
+    }
+
+    private static int bin(int tenths) {
+        final int bin = (tenths / 10 - MIN_MGDL) / BIN_WIDTH;
+        return bin < 0 ? 0 : bin >= BINS ? BINS - 1 : bin;
+    }
+
+    /***
+     * Readings of one day.
+     */
+    private static final class Day {
+
+        long day = Long.MIN_VALUE;
+
+        int[] entries = new int[0];
+
+        int size;
+
+        void reset(long day) {
+            this.day = day;
+            this.size = 0;
+        }
+
+        void add(int entry) {
+            if(size == entries.length) {
+                entries = Arrays.copyOf(entries, Math.max(288, size * 2));
+            }
+            entries[size++] = entry;
+        }
+    }
+
+    /***
+     * Running sums and hourly histograms of a window.
+     */
+    private static final class Window {
+
+        final int days;
+
+        long count;
+
+        long sum;
+
+        long sumSquares;
+
+        // < 54, 54..69, 70..180, 181..250, > 250 mg/dL
+        final long[] ranges = new long[5];
+
+        final int[] histogram = new int[24 * BINS];
+
+        Window(int days) {
+            this.days = days;
+        }
+
+        void add(int entry, int sign) {
+            final int hour = entry >>> 24;
+            final int tenths = entry & 0xffffff;
+            count += sign;
+            sum += sign * (long) tenths;
+            sumSquares += sign * (long) tenths * tenths;
+            ranges[range(tenths)] += sign;
+            histogram[hour * BINS + bin(tenths)] += sign;
+        }
+
+        void clear() {
+            count = 0;
+            sum = 0;
+            sumSquares = 0;
+            Arrays.fill(ranges, 0);
+            Arrays.fill(histogram, 0);
+        }
+
+        Summary summarize() {
+            final float[][] percentiles = new float[24][Summary.PERCENTILES.length];
+            for(int hour = 0; hour < 24; hour++) {
+                percentiles(hour * BINS, percentiles[hour]);
+            }
+            return new Summary(days, count, sum, sumSquares, ranges, percentiles);
+        }
+
+        /***
+         * Interpolates the percentiles in the bins of one hour
+         * @param offset offset of the hour in the histogram
+         * @param result receives the percentiles, NaN if the hour has no readings
+         */
+        private void percentiles(int offset, float[] result) {
+            long total = 0;
+            for(int i = 0; i < BINS; i++) {
+                total += histogram[offset + i];
+            }
+            if(total == 0) {
+                Arrays.fill(result, Float.NaN);
+                return;
+            }
+            int p = 0;
+            long cumulative = 0;
+            for(int i = 0; i < BINS && p < result.length; i++) {
+                final int binCount = histogram[offset + i];
+                if(binCount == 0) {
+                    continue;
+                }
+                while(p < result.length) {
+                    final double rank = Summary.PERCENTILES[p] / 100.0 * total;
+                    if(rank > cumulative + binCount) {
+                        break;
+                    }
+                    final double fraction = (rank - cumulative) / binCount;
+                    result[p++] = (float) (MIN_MGDL + (i + fraction) * BIN_WIDTH);
+                }
+                cumulative += binCount;
+            }
+            while(p < result.length) {
+                result[p++] = MAX_MGDL;
+            }
+        }
+
+        private static int range(int tenths) {
+            if(tenths < 540) {
+                return 0;
+            } else if(tenths < 700) {
+                return 1;
+            } else if(tenths <= 1800) {
+                return 2;
+            } else if(tenths <= 2500) {
+                return 3;
+            }
+            return 4;
+        }
+    }
+
+    /***
+     * Statistics of a window at the time of the summary.
+     */
+    public static final class Summary {
+
+        /***
+         * Percentiles of the ambulatory glucose profile.
+         */
+        public static final int[] PERCENTILES = {5, 25, 50, 75, 95};
+
+        private final int days;
+
+        private final long count;
+
+        private final double mean;
+
+        private final double sd;
+
+        private final double[] ranges = new double[5];
+
+        private final float[][] percentiles;
+
+        Summary(int days, long count, long sum, long sumSquares, long[] ranges, float[][] percentiles) {
+            this.days = days;
+            this.count = count;
+            if(count > 0) {
+                this.mean = sum / 10.0 / count;
+                final double variance = (sumSquares - (double) sum * sum / count) / 100.0 / count;
+                this.sd = Math.sqrt(Math.max(0, variance));
+                for(int i = 0; i < ranges.length; i++) {
+                    this.ranges[i] = ranges[i] / (double) count;
+                }
+            } else {
+                this.mean = Double.NaN;
+                this.sd = Double.NaN;
+                Arrays.fill(this.ranges, Double.NaN);
+            }
+            this.percentiles = percentiles;
+        }
+
+        public int getDays() {
+            return days;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        /***
+         * @return mean in mg/dL, NaN without readings
+         */
+        public double getMean() {
+            return mean;
+        }
+
+        /***
+         * @return standard deviation in mg/dL
+         */
+        public double getStandardDeviation() {
+            return sd;
+        }
+
+        /***
+         * @return coefficient of variation (0..1)
+         */
+        public double getCoefficientOfVariation() {
+            return sd / mean;
+        }
+
+        /***
+         * @return glucose management indicator in percent (3.31 + 0.02392 * mean mg/dL)
+         */
+        public double getGmi() {
+            return 3.31 + 0.02392 * mean;
+        }
+
+        /***
+         * @return fraction of readings below 54 mg/dL
+         */
+        public double getTimeVeryLow() {
+            return ranges[0];
+        }
+
+        /***
+         * @return fraction of readings below 70 mg/dL
+         */
+        public double getTimeBelowRange() {
+            return ranges[0] + ranges[1];
+        }
+
+        /***
+         * @return fraction of readings from 70 to 180 mg/dL
+         */
+        public double getTimeInRange() {
+            return ranges[2];
+        }
+
+        /***
+         * @return fraction of readings above 180 mg/dL
+         */
+        public double getTimeAboveRange() {
+            return ranges[3] + ranges[4];
+        }
+
+        /***
+         * @return fraction of readings above 250 mg/dL
+         */
+        public double getTimeVeryHigh() {
+            return ranges[4];
+        }
+
+        /***
+         * @param hour hour of day (0..23)
+         * @return percentiles of the hour in mg/dL in the order of {@link #PERCENTILES}, NaN if the
+         * hour has no readings
+         */
+        public float[] getPercentiles(int hour) {
+            return percentiles[hour];
+        }
+    }
+}
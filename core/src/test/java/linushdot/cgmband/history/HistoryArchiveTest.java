@@ -0,0 +1,143 @@
+package linushdot.cgmband.history;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import linushdot.cgmband.CgmUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class HistoryArchiveTest {
+
+    private static final long START = 1600000000000L;
+
+    private static final int MG_DL = CgmUnit.MG_DL.getCode();
+
+    private static final int MMOL_L = CgmUnit.MMOL_L.getCode();
+
+    @Test
+    public void roundTripKeepsGapsAndNegativeDeltas() throws IOException {
+        final Readings readings = new Readings();
+        long time = START;
+        // regular readings with jitter of a few seconds and values falling and rising
+        for(int i = 0; i < 1500; i++) {
+            time += 300000 + (i % 7 - 3) * 1000;
+            readings.add(time, 120 + (i % 40 < 20 ? -(i % 20) : (i % 20) - 20), MG_DL);
+        }
+        // sensor change, signal loss and a phone switched off for a month
+        time += 2 * 60 * 60 * 1000;
+        readings.add(time, 95, MG_DL);
+        time += 20 * 60 * 1000;
+        readings.add(time, 90, MG_DL);
+        time += 30L * 24 * 60 * 60 * 1000;
+        readings.add(time, 250, MG_DL);
+        // backfilled reading before the previous one
+        readings.add(time - 120000, 240, MG_DL);
+        // drops by 8 and 128 steps, the limits of the short value codes, and a rise past them
+        readings.add(time += 300000, 242, MG_DL);
+        readings.add(time += 300000, 234, MG_DL);
+        readings.add(time += 300000, 106, MG_DL);
+        readings.add(time += 300000, 105, MG_DL);
+        readings.add(time += 300000, 40, MG_DL);
+        readings.add(time += 300000, 400, MG_DL);
+        // unit switched, values off the step of the unit are stored raw
+        for(int i = 0; i < 1200; i++) {
+            time += 300000;
+            final float value = i % 50 == 0 ? 5.55f + i / 100f : (70 - i % 30) / 10f;
+            readings.add(time, value, MMOL_L);
+        }
+        readings.add(time += 300000, 110, MG_DL);
+        readings.add(time += 300000, 6.1f, MMOL_L);
+
+        final byte[] archive = readings.write();
+        final Readings read = new Readings();
+        assertEquals(readings.size(), HistoryArchive.read(new ByteArrayInputStream(archive),
+                Long.MIN_VALUE, Long.MAX_VALUE, read));
+        assertReadings(readings, read);
+    }
+
+    @Test
+    public void timesAreStoredInSeconds() throws IOException {
+        final Readings readings = new Readings();
+        readings.add(START + 999, 100, MG_DL);
+        readings.add(START + 300001, 101, MG_DL);
+
+        final Readings read = new Readings();
+        HistoryArchive.read(new ByteArrayInputStream(readings.write()), 0, Long.MAX_VALUE, read);
+        assertEquals(2, read.size());
+        assertEquals(START, (long) read.times.get(0));
+        assertEquals(START + 300000, (long) read.times.get(1));
+    }
+
+    @Test
+    public void rangeReadSkipsOtherBlocks() throws IOException {
+        final Readings readings = new Readings();
+        for(int i = 0; i < 3 * HistoryArchive.BLOCK_SIZE + 10; i++) {
+            readings.add(START + i * 300000L, 100 + i % 30, MG_DL);
+        }
+        final byte[] archive = readings.write();
+
+        final int from = HistoryArchive.BLOCK_SIZE + 100;
+        final int to = 2 * HistoryArchive.BLOCK_SIZE + 50;
+        final Readings read = new Readings();
+        assertEquals(to - from, HistoryArchive.read(new ByteArrayInputStream(archive),
+                readings.times.get(from), readings.times.get(to), read));
+        assertReadings(readings.subList(from, to), read);
+    }
+
+    private static void assertReadings(Readings expected, Readings actual) {
+        assertEquals(expected.times, actual.times);
+        assertEquals(expected.values, actual.values);
+        assertEquals(expected.units, actual.units);
+    }
+
+    /***
+     * Readings in order, receives the readings of an archive.
+     */
+    private static final class Readings implements HistoryStore.Visitor {
+
+        final List<Long> times = new ArrayList<>();
+
+        final List<Float> values = new ArrayList<>();
+
+        final List<Integer> units = new ArrayList<>();
+
+        void add(long time, float value, int unit) {
+            times.add(time);
+            values.add(value);
+            units.add(unit);
+        }
+
+        int size() {
+            return times.size();
+        }
+
+        Readings subList(int from, int to) {
+            final Readings readings = new Readings();
+            for(int i = from; i < to; i++) {
+                readings.add(times.get(i), values.get(i), units.get(i));
+            }
+            return readings;
+        }
+
+        byte[] write() throws IOException {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try(final HistoryArchive.Writer writer = new HistoryArchive.Writer(out)) {
+                for(int i = 0; i < size(); i++) {
+                    writer.append(times.get(i), values.get(i), units.get(i));
+                }
+            }
+            return out.toByteArray();
+        }
+
+        @Override
+        public void visit(long time, float value, int unit) {
+            add(time, value, unit);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package linushdot.cgmband.history;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicReference;
+
+import linushdot.cgmband.CgmUnit;
+import linushdot.cgmband.CgmValue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HistoryStoreTest {
+
+    private static final long START = 1600000000000L;
+
+    private static final long INTERVAL = 5 * 60 * 1000;
+
+    private static final int HEADER_SIZE = 16;
+
+    private static final int OFFSET_COUNT = 8;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void uncommittedRecordsAreRecovered() throws IOException {
+        final File file = write(20);
+        setCommittedCount(file, 12);
+
+        try(final HistoryStore store = HistoryStore.open(file)) {
+            assertReadings(store, 20);
+        }
+        assertEquals(20, getCommittedCount(file));
+    }
+
+    @Test
+    public void tornRecordIsDropped() throws IOException {
+        final File file = write(20);
+        setCommittedCount(file, 12);
+        corrupt(file, 19, 8); // value written, check not
+
+        try(final HistoryStore store = HistoryStore.open(file)) {
+            assertReadings(store, 19);
+            // the torn record is overwritten by the next append
+            assertTrue(store.append(reading(19)));
+            assertReadings(store, 20);
+        }
+        try(final HistoryStore store = HistoryStore.open(file)) {
+            assertReadings(store, 20);
+        }
+    }
+
+    @Test
+    public void recoveryStopsAtTornRecord() throws IOException {
+        final File file = write(20);
+        setCommittedCount(file, 12);
+        corrupt(file, 15, 0);
+
+        try(final HistoryStore store = HistoryStore.open(file)) {
+            assertReadings(store, 15);
+        }
+    }
+
+    @Test
+    public void committedCountBeyondValidRecordsIsTrimmed() throws IOException {
+        final File file = write(20);
+        setCommittedCount(file, 25);
+
+        try(final HistoryStore store = HistoryStore.open(file)) {
+            assertReadings(store, 20);
+        }
+    }
+
+    @Test
+    public void readOnlyStoreRecoversTailWithoutWriting() throws IOException {
+        final File file = write(20);
+        setCommittedCount(file, 12);
+        final long length = file.length();
+
+        try(final HistoryStore store = HistoryStore.openReadOnly(file)) {
+            assertReadings(store, 20);
+            try {
+                store.append(reading(20));
+                fail("Appended to a read-only store");
+            } catch(IOException e) {
+                // expected
+            }
+        }
+        assertEquals(12, getCommittedCount(file));
+        assertEquals(length, file.length());
+    }
+
+    @Test
+    public void readOnlyStoreKeepsReadingsWhileFileGrows() throws IOException {
+        final File file = folder.newFile("history.bin");
+        try(final HistoryStore writer = HistoryStore.open(file)) {
+            append(writer, 0, 5);
+            writer.flush();
+
+            try(final HistoryStore reader = HistoryStore.openReadOnly(file)) {
+                assertReadings(reader, 5);
+
+                // uncommitted appends are recovered by a later reader only
+                append(writer, 5, 8);
+                assertReadings(reader, 5);
+                try(final HistoryStore later = HistoryStore.openReadOnly(file)) {
+                    assertReadings(later, 8);
+                }
+
+                // the writer extends and remaps the file
+                append(writer, 8, 10000);
+                assertReadings(reader, 5);
+                try(final HistoryStore later = HistoryStore.openReadOnly(file)) {
+                    assertReadings(later, 10000);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void readOnlyStoreOpenedDuringAppendsSeesPrefix() throws Exception {
+        final File file = folder.newFile("history.bin");
+        final int total = 20000;
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        final HistoryStore writer = HistoryStore.open(file);
+        final Thread appender = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    append(writer, 0, total);
+                    writer.close();
+                } catch(Throwable e) {
+                    error.set(e);
+                }
+            }
+        });
+        appender.start();
+
+        int last = 0;
+        do {
+            try(final HistoryStore reader = HistoryStore.openReadOnly(file)) {
+                final int size = reader.size();
+                assertTrue("Size decreased from " + last + " to " + size, size >= last);
+                assertReadings(reader, size);
+                last = size;
+            }
+        } while(appender.isAlive());
+        appender.join();
+        assertNull(error.get());
+
+        try(final HistoryStore reader = HistoryStore.openReadOnly(file)) {
+            assertReadings(reader, total);
+        }
+    }
+
+    @Test
+    public void appendsNotAfterLastRecordAreIgnored() throws IOException {
+        try(final HistoryStore store = HistoryStore.open(folder.newFile("history.bin"))) {
+            append(store, 0, 3);
+            assertFalse(store.append(reading(2)));
+            assertFalse(store.append(reading(1)));
+            assertReadings(store, 3);
+        }
+    }
+
+    private static CgmValue reading(int i) {
+        return new CgmValue(80 + i % 120, CgmUnit.MG_DL, START + i * INTERVAL);
+    }
+
+    private static void append(HistoryStore store, int from, int to) throws IOException {
+        for(int i = from; i < to; i++) {
+            assertTrue(store.append(reading(i)));
+        }
+    }
+
+    private static void assertReadings(HistoryStore store, int size) {
+        assertEquals(size, store.size());
+        for(int i = 0; i < size; i++) {
+            final CgmValue expected = reading(i);
+            assertEquals(expected.getTime(), store.getTime(i));
+            assertEquals(expected.getValue(), store.getValue(i), 0);
+            assertEquals(CgmUnit.MG_DL.getCode(), store.getUnit(i));
+        }
+    }
+
+    private File write(int count) throws IOException {
+        final File file = folder.newFile("history.bin");
+        try(final HistoryStore store = HistoryStore.open(file)) {
+            append(store, 0, count);
+        }
+        return file;
+    }
+
+    private static long getCommittedCount(File file) throws IOException {
+        try(final RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            final ByteBuffer buffer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            raf.getChannel().read(buffer, OFFSET_COUNT);
+            return buffer.getLong(0);
+        }
+    }
+
+    private static void setCommittedCount(File file, long count) throws IOException {
+        try(final RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            final ByteBuffer buffer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putLong(0, count);
+            raf.getChannel().write(buffer, OFFSET_COUNT);
+        }
+    }
+
+    private static void corrupt(File file, int index, int offset) throws IOException {
+        try(final RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            final long position = HEADER_SIZE + (long) index * HistoryStore.RECORD_SIZE + offset;
+            raf.seek(position);
+            final int b = raf.read();
+            raf.seek(position);
+            raf.write(b ^ 0x5a);
+        }
+    }
+}